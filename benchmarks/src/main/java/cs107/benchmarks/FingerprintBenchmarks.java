@@ -0,0 +1,195 @@
+package cs107.benchmarks;
+
+import cs107.BinaryImage;
+import cs107.Fingerprint;
+import cs107.Helper;
+import cs107.Minutiae;
+import cs107.PixelWindow;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * JMH benchmarks of every stage of {@link Fingerprint}, on each image of the
+ * <code>fingerprints</code> directory.
+ * <p>
+ * Run from the <code>benchmarks</code> directory, after
+ * <code>mvn -B package</code>:
+ * <code>java -jar target/benchmarks.jar -prof gc</code>, or with
+ * <code>-p image=1_1,7_5</code> to restrict the images and a regular
+ * expression on the benchmark names to restrict the stages. The directory of
+ * the images is <code>fingerprints</code> or <code>../fingerprints</code>,
+ * relatively to the working directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class FingerprintBenchmarks {
+
+	/**
+	 * The name of the image, without its extension.
+	 */
+	@Param({ "1_1", "1_2", "1_3", "1_4", "1_5", "1_6", "1_7", "1_8", "2_1", "2_2", "2_3", "2_4", "2_5", "2_6", "2_7",
+			"2_8", "3_1", "3_2", "3_3", "3_4", "3_5", "3_6", "3_7", "3_8", "4_1", "4_2", "4_3", "4_4", "4_5", "4_6",
+			"4_7", "4_8", "5_1", "5_2", "5_3", "5_4", "5_5", "5_6", "5_7", "5_8", "6_1", "6_2", "6_3", "6_4", "6_5",
+			"6_6", "6_7", "6_8", "7_1", "7_2", "7_3", "7_4", "7_5", "7_6", "7_7", "7_8", "8_1", "8_2", "8_3", "8_4",
+			"8_5", "8_6", "8_7", "8_8", "9_1", "9_2", "9_3", "9_4", "9_5", "9_6", "9_7", "9_8", "10_1", "10_2", "10_3",
+			"10_4", "10_5", "10_6", "10_7", "10_8" })
+	public String image;
+
+	private BinaryImage binary;
+	private BinaryImage skeleton;
+	private List<int[]> minutiaList;
+	private List<int[]> transformedList;
+	private Minutiae minutiae;
+	private Minutiae partner;
+	private Minutiae transformed;
+	// the minutia around which the local stages run, or the center of the image
+	private int row;
+	private int col;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		Path directory = directory();
+		Path path = directory.resolve(image + ".png");
+		binary = Helper.readBinaryImage(path.toString());
+		if (binary == null) {
+			throw new IOException("cannot read " + path);
+		}
+		skeleton = Fingerprint.thin(binary);
+		minutiaList = Fingerprint.extract(skeleton);
+		minutiae = Minutiae.fromList(minutiaList);
+		partner = Minutiae.fromList(
+				Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage(partner(directory, path).toString()))));
+		row = minutiae.size() > 0 ? minutiae.row(0) : binary.height() / 2;
+		col = minutiae.size() > 0 ? minutiae.col(0) : binary.width() / 2;
+		transformed = new Minutiae(minutiae.size());
+		transformedList = Fingerprint.applyTransformation(minutiaList, row, col, 3, -2, 5);
+	}
+
+	private static Path directory() throws IOException {
+		for (String candidate : new String[] { "fingerprints", "../fingerprints" }) {
+			Path directory = Paths.get(candidate);
+			if (Files.isDirectory(directory)) {
+				return directory;
+			}
+		}
+		throw new IOException("no fingerprints directory in " + Paths.get("").toAbsolutePath());
+	}
+
+	/**
+	 * Returns the image matched against the given one: the next impression of
+	 * the same finger among the files of the directory, the first one after the
+	 * last, or the image itself if it is the only impression of its finger.
+	 */
+	static Path partner(Path directory, Path path) {
+		String name = path.getFileName().toString();
+		String prefix = name.substring(0, name.indexOf('_') + 1);
+		List<Path> impressions = new ArrayList<Path>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, prefix + "*.png")) {
+			files.forEach(impressions::add);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		impressions.sort((path1, path2) -> Integer.compare(impression(path1), impression(path2)));
+		for (int i = 0; i < impressions.size(); ++i) {
+			if (impressions.get(i).getFileName().toString().equals(name)) {
+				return impressions.get((i + 1) % impressions.size());
+			}
+		}
+		return path;
+	}
+
+	private static int impression(Path path) {
+		String name = path.getFileName().toString();
+		try {
+			return Integer.parseInt(name.substring(name.indexOf('_') + 1, name.lastIndexOf('.')));
+		} catch (NumberFormatException | IndexOutOfBoundsException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * One call per pixel of the skeleton, as done by the extraction.
+	 */
+	@Benchmark
+	public void getNeighbours(Blackhole blackhole) {
+		for (int i = 0; i < skeleton.height(); ++i) {
+			for (int j = 0; j < skeleton.width(); ++j) {
+				blackhole.consume(Fingerprint.getNeighbours(skeleton, i, j));
+			}
+		}
+	}
+
+	@Benchmark
+	public BinaryImage thinningStep() {
+		return Fingerprint.thinningStep(binary, 0);
+	}
+
+	@Benchmark
+	public BinaryImage thin() {
+		return Fingerprint.thin(binary);
+	}
+
+	@Benchmark
+	public BinaryImage connectedPixels() {
+		return Fingerprint.connectedPixels(skeleton, row, col, Fingerprint.ORIENTATION_DISTANCE);
+	}
+
+	/**
+	 * The variant of {@link #connectedPixels()} used by the extraction.
+	 */
+	@Benchmark
+	public PixelWindow connectedPixelsWindow() {
+		return Fingerprint.connectedPixelsWindow(skeleton, row, col, Fingerprint.ORIENTATION_DISTANCE);
+	}
+
+	@Benchmark
+	public int computeOrientation() {
+		return Fingerprint.computeOrientation(skeleton, row, col, Fingerprint.ORIENTATION_DISTANCE);
+	}
+
+	@Benchmark
+	public List<int[]> extract() {
+		return Fingerprint.extract(skeleton);
+	}
+
+	@Benchmark
+	public Minutiae applyTransformation() {
+		Fingerprint.applyTransformation(minutiae, row, col, 3, -2, 5, transformed);
+		return transformed;
+	}
+
+	@Benchmark
+	public int matchingMinutiaeCount() {
+		return Fingerprint.matchingMinutiaeCount(minutiaList, transformedList, Fingerprint.DISTANCE_THRESHOLD,
+				Fingerprint.ORIENTATION_THRESHOLD);
+	}
+
+	@Benchmark
+	public boolean match() {
+		return Fingerprint.match(minutiae, partner);
+	}
+}
@@ -0,0 +1,185 @@
+package cs107;
+
+import java.util.Arrays;
+
+/**
+ * Binary image packed 64 pixels per <code>long</code>.
+ * <p>
+ * All the pixels are stored in a single row-major buffer. Every row starts on a
+ * new word, so pixel <code>(row, col)</code> is the bit <code>col % 64</code>
+ * of the word <code>row * wordsPerRow() + col / 64</code>. A set bit is a black
+ * (<code>true</code>) pixel. The bits past the last column of a row are always
+ * zero.
+ */
+public final class BinaryImage {
+
+	/**
+	 * The number of pixels stored in one word of the buffer.
+	 */
+	static final int WORD_SIZE = 64;
+
+	private final int height;
+	private final int width;
+	private final int wordsPerRow;
+	private final long[] words;
+
+	/**
+	 * Creates a white image of the given size.
+	 *
+	 * @param height the number of rows of the image.
+	 * @param width  the number of columns of the image.
+	 */
+	public BinaryImage(int height, int width) {
+		assert (height >= 0 && width >= 0);
+		this.height = height;
+		this.width = width;
+		this.wordsPerRow = (width + WORD_SIZE - 1) / WORD_SIZE;
+		this.words = new long[height * wordsPerRow];
+	}
+
+	/**
+	 * Packs a boolean image.
+	 *
+	 * @param image array containing each pixel's boolean value.
+	 * @return the packed image.
+	 */
+	public static BinaryImage fromArray(boolean[][] image) {
+		assert (image != null);
+		BinaryImage result = new BinaryImage(image.length, image.length == 0 ? 0 : image[0].length);
+		for (int row = 0; row < result.height; ++row) {
+			int base = row * result.wordsPerRow;
+			for (int col = 0; col < result.width; ++col) {
+				if (image[row][col]) {
+					result.words[base + (col >>> 6)] |= 1L << col;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Unpacks the image.
+	 *
+	 * @return array containing each pixel's boolean value.
+	 */
+	public boolean[][] toArray() {
+		boolean[][] image = new boolean[height][width];
+		for (int row = 0; row < height; ++row) {
+			int base = row * wordsPerRow;
+			for (int col = 0; col < width; ++col) {
+				image[row][col] = (words[base + (col >>> 6)] & (1L << col)) != 0;
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @return the number of rows of the image.
+	 */
+	public int height() {
+		return height;
+	}
+
+	/**
+	 * @return the number of columns of the image.
+	 */
+	public int width() {
+		return width;
+	}
+
+	/**
+	 * @return the number of words used to store one row.
+	 */
+	public int wordsPerRow() {
+		return wordsPerRow;
+	}
+
+	/**
+	 * Returns the backing buffer of the image. It is shared, not copied, so that
+	 * the word-level algorithms of {@link Fingerprint} can work on it directly.
+	 *
+	 * @return the packed pixels.
+	 */
+	long[] words() {
+		return words;
+	}
+
+	/**
+	 * Returns <code>true</code> if the coordinates are inside the image.
+	 *
+	 * @param row the row of the pixel.
+	 * @param col the column of the pixel.
+	 * @return <code>true</code> if the pixel exists.
+	 */
+	public boolean contains(int row, int col) {
+		return 0 <= row && row < height && 0 <= col && col < width;
+	}
+
+	/**
+	 * Returns the value of a pixel. Pixels out of bounds of the image are
+	 * considered white.
+	 *
+	 * @param row the row of the pixel.
+	 * @param col the column of the pixel.
+	 * @return <code>true</code> if the pixel is black.
+	 */
+	public boolean get(int row, int col) {
+		if (!contains(row, col)) {
+			return false;
+		}
+		return (words[row * wordsPerRow + (col >>> 6)] & (1L << col)) != 0;
+	}
+
+	/**
+	 * Sets the value of a pixel.
+	 *
+	 * @param row   the row of the pixel, must be inside the image.
+	 * @param col   the column of the pixel, must be inside the image.
+	 * @param value <code>true</code> for black, <code>false</code> for white.
+	 */
+	public void set(int row, int col, boolean value) {
+		assert (contains(row, col));
+		int index = row * wordsPerRow + (col >>> 6);
+		if (value) {
+			words[index] |= 1L << col;
+		} else {
+			words[index] &= ~(1L << col);
+		}
+	}
+
+	/**
+	 * @return a copy of this image.
+	 */
+	public BinaryImage copy() {
+		BinaryImage copy = new BinaryImage(height, width);
+		System.arraycopy(words, 0, copy.words, 0, words.length);
+		return copy;
+	}
+
+	/**
+	 * Overwrites this image with the pixels of another one of the same size.
+	 *
+	 * @param other the image to copy.
+	 */
+	public void copyFrom(BinaryImage other) {
+		assert (other.height == height && other.width == width);
+		System.arraycopy(other.words, 0, words, 0, words.length);
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof BinaryImage)) {
+			return false;
+		}
+		BinaryImage other = (BinaryImage) o;
+		return height == other.height && width == other.width && Arrays.equals(words, other.words);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * (31 * height + width) + Arrays.hashCode(words);
+	}
+}
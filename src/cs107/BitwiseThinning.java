@@ -0,0 +1,394 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Word-parallel implementation of the thinning algorithm of
+ * {@link Fingerprint#thin(BinaryImage)}.
+ * <p>
+ * Instead of looking at the pixels one by one, the deletion conditions of
+ * {@link Fingerprint#thinningStep(BinaryImage, int)} are evaluated on 64 pixels
+ * at once: the 8 neighbours of every pixel of a word are obtained by shifting
+ * the words of the row above, the row itself and the row below, and the counts
+ * of black neighbours and transitions are computed with bit-sliced adders.
+ */
+final class BitwiseThinning {
+
+	/**
+	 * The minimum number of rows given to a task by
+	 * {@link #thin(BinaryImage, Executor)}.
+	 */
+	private static final int MIN_BAND_ROWS = 16;
+
+	private BitwiseThinning() {
+	}
+
+	/**
+	 * Computes the skeleton of a packed image.
+	 *
+	 * @param image the packed image, it is not modified.
+	 * @return the image after applying the thinning algorithm.
+	 */
+	static BinaryImage thin(BinaryImage image) {
+		assert (image != null);
+		BinaryImage current = image.copy();
+		BinaryImage next = new BinaryImage(image.height(), image.width());
+		boolean changed = true;
+		// the image is stable as soon as a step 0 and a step 1 both leave it unchanged
+		while (changed) {
+			changed = step(current, next, 0);
+			changed |= step(next, current, 1);
+		}
+		return current;
+	}
+
+	/**
+	 * Computes the skeleton of a packed image, using several threads.
+	 * <p>
+	 * The image is split in bands of rows. A step only reads the image produced
+	 * by the previous step, so every band can be computed independently: the row
+	 * above and the row below a band (its halo) are read from the shared source
+	 * image, and each band only writes its own rows of the destination. After
+	 * each step the bands are joined, which both makes the new image visible to
+	 * every band and gives the global convergence test. The result is the same as
+	 * {@link #thin(BinaryImage)}.
+	 *
+	 * @param image    the packed image, it is not modified.
+	 * @param executor the executor running the bands.
+	 * @return the image after applying the thinning algorithm.
+	 */
+	static BinaryImage thin(BinaryImage image, Executor executor) {
+		return thin(image, executor, null);
+	}
+
+	/**
+	 * Computes the skeleton of a packed image, using several threads, and counts
+	 * the iterations.
+	 *
+	 * @param image      the packed image, it is not modified.
+	 * @param executor   the executor running the bands.
+	 * @param iterations receives in its first element, if not <code>null</code>,
+	 *                   the number of iterations (a step 0 followed by a step 1)
+	 *                   that removed at least one pixel.
+	 * @return the image after applying the thinning algorithm.
+	 * @see #thin(BinaryImage, Executor)
+	 */
+	static BinaryImage thin(BinaryImage image, Executor executor, int[] iterations) {
+		assert (image != null);
+		assert (executor != null);
+		int height = image.height();
+		int bands = Tasks.count(height, MIN_BAND_ROWS);
+		if (bands == 1) {
+			return thinIncremental(image, iterations);
+		}
+		int[] bandRows = new int[bands + 1];
+		for (int band = 0; band <= bands; ++band) {
+			bandRows[band] = (int) ((long) height * band / bands);
+		}
+
+		BinaryImage current = image.copy();
+		BinaryImage next = new BinaryImage(image.height(), image.width());
+		boolean changed = true;
+		int count = 0;
+		while (changed) {
+			changed = step(current, next, 0, bandRows, executor);
+			changed |= step(next, current, 1, bandRows, executor);
+			if (changed) {
+				++count;
+			}
+		}
+		if (iterations != null) {
+			iterations[0] = count;
+		}
+		return current;
+	}
+
+	/**
+	 * Applies one step of the thinning algorithm, each band of rows being
+	 * computed by a task of the executor.
+	 *
+	 * @param source      the image to read, it is not modified.
+	 * @param destination the image to write.
+	 * @param step        the step to apply, Step 0 or Step 1.
+	 * @param bandRows    the first row of each band, followed by the height of
+	 *                    the image.
+	 * @param executor    the executor running the bands.
+	 * @return <code>true</code> if at least one pixel was removed.
+	 */
+	private static boolean step(BinaryImage source, BinaryImage destination, int step, int[] bandRows,
+			Executor executor) {
+		List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+		for (int band = 0; band < bandRows.length - 1; ++band) {
+			int fromRow = bandRows[band];
+			int toRow = bandRows[band + 1];
+			futures.add(CompletableFuture.supplyAsync(() -> step(source, destination, step, fromRow, toRow), executor));
+		}
+		boolean changed = false;
+		for (CompletableFuture<Boolean> future : futures) {
+			changed |= Tasks.join(future);
+		}
+		return changed;
+	}
+
+	/**
+	 * Applies one step of the thinning algorithm.
+	 *
+	 * @param source      the image to read, it is not modified.
+	 * @param destination the image to write, of the same size as
+	 *                    <code>source</code>.
+	 * @param step        the step to apply, Step 0 or Step 1.
+	 * @return <code>true</code> if at least one pixel was removed.
+	 */
+	static boolean step(BinaryImage source, BinaryImage destination, int step) {
+		return step(source, destination, step, 0, source.height());
+	}
+
+	/**
+	 * Computes the skeleton of a packed image, re-evaluating only the words that
+	 * can still change.
+	 * <p>
+	 * Whether a pixel is removed by a step only depends on its 3x3 neighbourhood,
+	 * so a word that was not removable by a step stays so until itself or one of
+	 * its 8 neighbouring words changes. Each step therefore keeps a worklist of
+	 * the words to evaluate: it starts with every black word, and every word that
+	 * loses a pixel puts itself and its neighbours back in the worklists of both
+	 * steps. The skeleton is reached once both worklists are empty, which gives
+	 * the same result as {@link #thin(BinaryImage)} while the late iterations only
+	 * touch the few words that are still changing.
+	 *
+	 * @param image the packed image, it is not modified.
+	 * @return the image after applying the thinning algorithm.
+	 */
+	static BinaryImage thinIncremental(BinaryImage image) {
+		return thinIncremental(image, null);
+	}
+
+	/**
+	 * Computes the skeleton of a packed image, re-evaluating only the words that
+	 * can still change, and counts the iterations.
+	 *
+	 * @param image      the packed image, it is not modified.
+	 * @param iterations receives in its first element, if not <code>null</code>,
+	 *                   the number of iterations (a step 0 followed by a step 1)
+	 *                   that removed at least one pixel, as counted by
+	 *                   {@link #thin(BinaryImage, Executor, int[])}.
+	 * @return the image after applying the thinning algorithm.
+	 * @see #thinIncremental(BinaryImage)
+	 */
+	static BinaryImage thinIncremental(BinaryImage image, int[] iterations) {
+		assert (image != null);
+		BinaryImage result = image.copy();
+		long[] words = result.words();
+		int wordsPerRow = result.wordsPerRow();
+		int height = result.height();
+
+		Worklist[] pending = { new Worklist(words.length), new Worklist(words.length) };
+		for (int index = 0; index < words.length; ++index) {
+			if (words[index] != 0L) {
+				pending[0].add(index);
+				pending[1].add(index);
+			}
+		}
+		// the removed pixels are only applied once the whole step has been evaluated
+		int[] changedIndices = new int[words.length];
+		long[] changedMasks = new long[words.length];
+
+		int step = 0;
+		// the index of the last step that removed pixels, counting the steps of
+		// both kinds from 0
+		int lastChange = -1;
+		int steps = 0;
+		while (!pending[0].isEmpty() || !pending[1].isEmpty()) {
+			Worklist worklist = pending[step];
+			int changed = 0;
+			for (int k = 0; k < worklist.size; ++k) {
+				int index = worklist.indices[k];
+				long removed = removable(words, wordsPerRow, height, index / wordsPerRow, index % wordsPerRow, step);
+				if (removed != 0L) {
+					changedIndices[changed] = index;
+					changedMasks[changed] = removed;
+					++changed;
+				}
+			}
+			worklist.clear();
+
+			for (int k = 0; k < changed; ++k) {
+				int index = changedIndices[k];
+				words[index] &= ~changedMasks[k];
+				int row = index / wordsPerRow;
+				int w = index % wordsPerRow;
+				for (int i = Math.max(0, row - 1); i <= Math.min(height - 1, row + 1); ++i) {
+					for (int j = Math.max(0, w - 1); j <= Math.min(wordsPerRow - 1, w + 1); ++j) {
+						int neighbour = i * wordsPerRow + j;
+						if (words[neighbour] != 0L) {
+							pending[0].add(neighbour);
+							pending[1].add(neighbour);
+						}
+					}
+				}
+			}
+			if (changed > 0) {
+				lastChange = steps;
+			}
+			step = 1 - step;
+			++steps;
+		}
+		if (iterations != null) {
+			// the steps 2k and 2k + 1 form the iteration k
+			iterations[0] = lastChange < 0 ? 0 : lastChange / 2 + 1;
+		}
+		return result;
+	}
+
+	/**
+	 * Applies one step of the thinning algorithm to the rows
+	 * <code>[fromRow, toRow)</code>. The other rows of the destination are left
+	 * untouched.
+	 *
+	 * @param source      the image to read, it is not modified.
+	 * @param destination the image to write, of the same size as
+	 *                    <code>source</code>.
+	 * @param step        the step to apply, Step 0 or Step 1.
+	 * @param fromRow     the first row to process (included).
+	 * @param toRow       the last row to process (excluded).
+	 * @return <code>true</code> if at least one pixel was removed.
+	 */
+	static boolean step(BinaryImage source, BinaryImage destination, int step, int fromRow, int toRow) {
+		assert (source.height() == destination.height() && source.width() == destination.width());
+		long[] in = source.words();
+		long[] out = destination.words();
+		int wordsPerRow = source.wordsPerRow();
+		int height = source.height();
+		long changed = 0L;
+
+		for (int row = fromRow; row < toRow; ++row) {
+			int base = row * wordsPerRow;
+			for (int w = 0; w < wordsPerRow; ++w) {
+				long p = in[base + w];
+				long removed = p == 0L ? 0L : removable(in, wordsPerRow, height, row, w, step);
+				out[base + w] = p & ~removed;
+				changed |= removed;
+			}
+		}
+		return changed != 0L;
+	}
+
+	/**
+	 * Computes which pixels of a word are removed by a step of the thinning
+	 * algorithm.
+	 *
+	 * @param in          the words of the image.
+	 * @param wordsPerRow the number of words in a row.
+	 * @param height      the number of rows of the image.
+	 * @param row         the row of the word.
+	 * @param w           the index of the word in its row.
+	 * @param step        the step to apply, Step 0 or Step 1.
+	 * @return the mask of the pixels to remove.
+	 */
+	private static long removable(long[] in, int wordsPerRow, int height, int row, int w, int step) {
+		int base = row * wordsPerRow;
+		int up = base - wordsPerRow;
+		int down = base + wordsPerRow;
+		boolean hasUp = row > 0;
+		boolean hasDown = row < height - 1;
+		boolean hasLeft = w > 0;
+		boolean hasRight = w < wordsPerRow - 1;
+
+		// the words of the three rows, and of their left and right neighbours. Missing
+		// words are white.
+		long p = in[base + w];
+		long n = hasUp ? in[up + w] : 0L;
+		long nl = hasUp && hasLeft ? in[up + w - 1] : 0L;
+		long nr = hasUp && hasRight ? in[up + w + 1] : 0L;
+		long cl = hasLeft ? in[base + w - 1] : 0L;
+		long cr = hasRight ? in[base + w + 1] : 0L;
+		long s = hasDown ? in[down + w] : 0L;
+		long sl = hasDown && hasLeft ? in[down + w - 1] : 0L;
+		long sr = hasDown && hasRight ? in[down + w + 1] : 0L;
+
+		// bit i of pK is the neighbour K of the pixel i of the word, with the
+		// numbering of Fingerprint.getNeighbours
+		long p0 = n;
+		long p1 = (n >>> 1) | (nr << 63);
+		long p2 = (p >>> 1) | (cr << 63);
+		long p3 = (s >>> 1) | (sr << 63);
+		long p4 = s;
+		long p5 = (s << 1) | (sl >>> 63);
+		long p6 = (p << 1) | (cl >>> 63);
+		long p7 = (n << 1) | (nl >>> 63);
+
+		// number of black neighbours, as a 4 bits number sliced over s0..s3
+		long s0 = 0L, s1 = 0L, s2 = 0L, s3 = 0L;
+		long x, c;
+		x = p0; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p1; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p2; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p3; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p4; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p5; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p6; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		x = p7; c = s0 & x; s0 ^= x; x = c; c = s1 & x; s1 ^= x; x = c; c = s2 & x; s2 ^= x; s3 |= c;
+		// between 2 and 6 black neighbours: not 0 or 1 (s1 = s2 = 0), not 7 (s0 = s1 = s2 =
+		// 1) and not 8 (s3 = 1)
+		long blackNeighbours = ~s3 & (s1 | s2) & ~(s0 & s1 & s2);
+
+		// exactly one white to black transition
+		long once = 0L, many = 0L;
+		x = ~p0 & p1; many |= once & x; once |= x;
+		x = ~p1 & p2; many |= once & x; once |= x;
+		x = ~p2 & p3; many |= once & x; once |= x;
+		x = ~p3 & p4; many |= once & x; once |= x;
+		x = ~p4 & p5; many |= once & x; once |= x;
+		x = ~p5 & p6; many |= once & x; once |= x;
+		x = ~p6 & p7; many |= once & x; once |= x;
+		x = ~p7 & p0; many |= once & x; once |= x;
+		long transitions = once & ~many;
+
+		long condition;
+		if (step == 0) {
+			// p0 or p2 or p4 is white, and p2 or p4 or p6 is white
+			condition = ~(p0 & p2 & p4) & ~(p2 & p4 & p6);
+		} else {
+			// p0 or p2 or p6 is white, and p0 or p4 or p6 is white
+			condition = ~(p0 & p2 & p6) & ~(p0 & p4 & p6);
+		}
+
+		return p & blackNeighbours & transitions & condition;
+	}
+
+	/**
+	 * Set of word indices, kept both as a list to iterate over and as flags to
+	 * avoid duplicates.
+	 */
+	private static final class Worklist {
+		private final int[] indices;
+		private final boolean[] queued;
+		private int size;
+
+		Worklist(int capacity) {
+			indices = new int[capacity];
+			queued = new boolean[capacity];
+		}
+
+		void add(int index) {
+			if (!queued[index]) {
+				queued[index] = true;
+				indices[size++] = index;
+			}
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		void clear() {
+			for (int k = 0; k < size; ++k) {
+				queued[indices[k]] = false;
+			}
+			size = 0;
+		}
+	}
+}
@@ -0,0 +1,506 @@
+package cs107;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * End-to-end benchmark over a dataset: every image is enrolled, then compared
+ * with every other image.
+ * <p>
+ * The images are named <code>finger_impression.png</code>, and two images of
+ * the same finger are expected to match. Each run reports the number of pairs
+ * compared per second, the median and 99th percentile of the duration of each
+ * stage (decoding, thinning and extraction per image, matching per pair), the
+ * false accept and false reject rates at the thresholds of
+ * {@link Fingerprint}, and the peak heap usage.
+ * <p>
+ * Usage: <code>java cs107.DatasetBenchmark [-dir fingerprints]
+ * [-engine exact|fast|all] [-threads 1,4] [-limit images]
+ * [-output dataset-benchmark.json]</code>. Every engine is run with every
+ * number of threads, by default the exact and fast matchers, serial and with
+ * one thread per core, and all the runs are written to the same JSON file.
+ */
+public final class DatasetBenchmark {
+
+	/**
+	 * The matcher compared.
+	 */
+	public enum Engine {
+		/**
+		 * {@link Fingerprint#match(Minutiae, Minutiae)}.
+		 */
+		EXACT,
+		/**
+		 * {@link HoughMatcher#match(Minutiae, Minutiae)}.
+		 */
+		FAST;
+
+		boolean match(Minutiae minutiae1, Minutiae minutiae2) {
+			return this == EXACT ? Fingerprint.match(minutiae1, minutiae2) : HoughMatcher.match(minutiae1, minutiae2);
+		}
+	}
+
+	// the indices of the enrolment stages in the measures
+	private static final int DECODE = 0;
+	private static final int THIN = 1;
+	private static final int EXTRACT = 2;
+	private static final String[] ENROLMENT_STAGES = { "decode", "thin", "extract" };
+
+	private final List<Path> images;
+	private final String[] fingers;
+
+	/**
+	 * Creates a benchmark over a list of images.
+	 *
+	 * @param images the images, named <code>finger_impression.png</code>.
+	 */
+	public DatasetBenchmark(List<Path> images) {
+		assert (images != null);
+		this.images = new ArrayList<Path>(images);
+		fingers = new String[images.size()];
+		for (int i = 0; i < fingers.length; ++i) {
+			fingers[i] = finger(images.get(i));
+		}
+	}
+
+	/**
+	 * @return the finger of an image, the part of its name before the
+	 *         underscore.
+	 */
+	private static String finger(Path image) {
+		String name = image.getFileName().toString();
+		int underscore = name.indexOf('_');
+		return underscore < 0 ? name : name.substring(0, underscore);
+	}
+
+	/**
+	 * @return the impression of an image, the number after the underscore, or
+	 *         <code>0</code>.
+	 */
+	private static int impression(Path image) {
+		String name = image.getFileName().toString();
+		int underscore = name.indexOf('_');
+		int dot = name.lastIndexOf('.');
+		try {
+			return Integer.parseInt(name.substring(underscore + 1, dot < underscore ? name.length() : dot));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Lists the PNG images of a directory, sorted by finger and impression.
+	 *
+	 * @param directory the directory.
+	 * @return the images.
+	 * @throws IOException if the directory cannot be read.
+	 */
+	public static List<Path> images(Path directory) throws IOException {
+		List<Path> images = new ArrayList<Path>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.png")) {
+			stream.forEach(images::add);
+		}
+		images.sort(Comparator.comparing((Path image) -> {
+			String finger = finger(image);
+			// numeric fingers first, in numeric order
+			return finger.matches("\\d{1,9}") ? String.format("%09d", Integer.parseInt(finger)) : finger;
+		}).thenComparingInt(DatasetBenchmark::impression));
+		return images;
+	}
+
+	/**
+	 * The measures of one run.
+	 */
+	public static final class Result {
+		private final Engine engine;
+		private final int threads;
+		private final long[][] enrolmentNanos;
+		private final long[] matchNanos;
+		private final long enrolmentWallNanos;
+		private final long matchWallNanos;
+		private final int genuinePairs;
+		private final int falseAccepts;
+		private final int falseRejects;
+		private final long peakHeapBytes;
+
+		Result(Engine engine, int threads, long[][] enrolmentNanos, long[] matchNanos, long enrolmentWallNanos,
+				long matchWallNanos, int genuinePairs, int falseAccepts, int falseRejects, long peakHeapBytes) {
+			this.engine = engine;
+			this.threads = threads;
+			this.enrolmentNanos = enrolmentNanos;
+			this.matchNanos = matchNanos;
+			this.enrolmentWallNanos = enrolmentWallNanos;
+			this.matchWallNanos = matchWallNanos;
+			this.genuinePairs = genuinePairs;
+			this.falseAccepts = falseAccepts;
+			this.falseRejects = falseRejects;
+			this.peakHeapBytes = peakHeapBytes;
+		}
+
+		/**
+		 * @return the matcher.
+		 */
+		public Engine engine() {
+			return engine;
+		}
+
+		/**
+		 * @return the number of threads.
+		 */
+		public int threads() {
+			return threads;
+		}
+
+		/**
+		 * @return the number of pairs compared.
+		 */
+		public int pairs() {
+			return matchNanos.length;
+		}
+
+		/**
+		 * @return the number of pairs compared per second.
+		 */
+		public double pairsPerSecond() {
+			return matchNanos.length * 1e9 / Math.max(1, matchWallNanos);
+		}
+
+		/**
+		 * @return the number of pairs of images of the same finger.
+		 */
+		public int genuinePairs() {
+			return genuinePairs;
+		}
+
+		/**
+		 * @return the number of pairs of images of different fingers.
+		 */
+		public int impostorPairs() {
+			return matchNanos.length - genuinePairs;
+		}
+
+		/**
+		 * @return the number of pairs of different fingers that matched.
+		 */
+		public int falseAccepts() {
+			return falseAccepts;
+		}
+
+		/**
+		 * @return the number of pairs of the same finger that did not match.
+		 */
+		public int falseRejects() {
+			return falseRejects;
+		}
+
+		/**
+		 * @return the false accept rate, <code>NaN</code> without impostor pairs.
+		 */
+		public double falseAcceptRate() {
+			return (double) falseAccepts / impostorPairs();
+		}
+
+		/**
+		 * @return the false reject rate, <code>NaN</code> without genuine pairs.
+		 */
+		public double falseRejectRate() {
+			return (double) falseRejects / genuinePairs;
+		}
+
+		/**
+		 * @return the highest heap usage during the run, in bytes, summed over the
+		 *         memory pools, so an upper bound if the pools did not peak at the
+		 *         same time.
+		 */
+		public long peakHeapBytes() {
+			return peakHeapBytes;
+		}
+
+		/**
+		 * Returns a percentile of the duration of a stage.
+		 *
+		 * @param stage      <code>decode</code>, <code>thin</code>,
+		 *                   <code>extract</code> or <code>match</code>.
+		 * @param percentile the percentile, between <code>0</code> and
+		 *                   <code>100</code>.
+		 * @return the duration in nanoseconds, with the nearest-rank method.
+		 * @throws IllegalArgumentException if the stage is not one of the above.
+		 */
+		public long percentile(String stage, double percentile) {
+			if ("match".equals(stage)) {
+				return DatasetBenchmark.percentile(matchNanos, percentile);
+			}
+			int index = Arrays.asList(ENROLMENT_STAGES).indexOf(stage);
+			if (index < 0) {
+				throw new IllegalArgumentException("unknown stage: " + stage);
+			}
+			return DatasetBenchmark.percentile(enrolmentNanos[index], percentile);
+		}
+
+		String toJson() {
+			StringBuilder json = new StringBuilder();
+			json.append("    {\"engine\": \"").append(engine.name().toLowerCase(Locale.ROOT)).append("\", \"threads\": ")
+					.append(threads);
+			json.append(", \"pairs\": ").append(pairs());
+			json.append(String.format(Locale.ROOT, ", \"enrolmentSeconds\": %.3f, \"matchSeconds\": %.3f",
+					enrolmentWallNanos / 1e9, matchWallNanos / 1e9));
+			json.append(String.format(Locale.ROOT, ", \"pairsPerSecond\": %.2f", pairsPerSecond()));
+			json.append(",\n     \"stages\": {");
+			for (int stage = 0; stage <= ENROLMENT_STAGES.length; ++stage) {
+				String name = stage < ENROLMENT_STAGES.length ? ENROLMENT_STAGES[stage] : "match";
+				json.append(stage == 0 ? "" : ", ");
+				json.append(String.format(Locale.ROOT, "\"%s\": {\"p50Micros\": %.1f, \"p99Micros\": %.1f}", name,
+						percentile(name, 50) / 1e3, percentile(name, 99) / 1e3));
+			}
+			json.append("},\n     \"genuinePairs\": ").append(genuinePairs);
+			json.append(", \"impostorPairs\": ").append(impostorPairs());
+			json.append(", \"falseAccepts\": ").append(falseAccepts);
+			json.append(", \"falseRejects\": ").append(falseRejects);
+			json.append(String.format(Locale.ROOT, ", \"far\": %s, \"frr\": %s", number(falseAcceptRate()),
+					number(falseRejectRate())));
+			json.append(", \"peakHeapBytes\": ").append(peakHeapBytes).append("}");
+			return json.toString();
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ROOT,
+					"%-5s %2d threads: %8.1f pairs/s, match p50 %8.1f us p99 %8.1f us, FAR %.4f FRR %.4f, peak heap %d MB",
+					engine.name().toLowerCase(Locale.ROOT), threads, pairsPerSecond(), percentile("match", 50) / 1e3,
+					percentile("match", 99) / 1e3, falseAcceptRate(), falseRejectRate(), peakHeapBytes >> 20);
+		}
+	}
+
+	private static String number(double value) {
+		return Double.isNaN(value) ? "null" : String.format(Locale.ROOT, "%.6f", value);
+	}
+
+	private static long percentile(long[] nanos, double percentile) {
+		if (nanos.length == 0) {
+			return 0;
+		}
+		long[] sorted = nanos.clone();
+		Arrays.sort(sorted);
+		int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+		return sorted[Math.min(sorted.length - 1, Math.max(0, rank - 1))];
+	}
+
+	/**
+	 * Enrolls every image, then compares every ordered pair of different images.
+	 *
+	 * @param engine  the matcher.
+	 * @param threads the number of threads enrolling and comparing.
+	 * @return the measures.
+	 */
+	public Result run(Engine engine, int threads) {
+		assert (engine != null);
+		assert (threads > 0);
+		int n = images.size();
+		List<MemoryPoolMXBean> heap = new ArrayList<MemoryPoolMXBean>();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+				heap.add(pool);
+			}
+		}
+		// starts from the live data of the previous runs only
+		System.gc();
+		for (MemoryPoolMXBean pool : heap) {
+			pool.resetPeakUsage();
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			long[][] enrolmentNanos = new long[ENROLMENT_STAGES.length][n];
+			Minutiae[] templates = new Minutiae[n];
+			long start = System.nanoTime();
+			forEach(n, threads, executor, i -> {
+				long t0 = System.nanoTime();
+				BinaryImage image = Helper.readBinaryImage(images.get(i).toString());
+				if (image == null) {
+					throw new IllegalArgumentException("cannot read " + images.get(i));
+				}
+				long t1 = System.nanoTime();
+				BinaryImage skeleton = Fingerprint.thin(image);
+				long t2 = System.nanoTime();
+				templates[i] = Minutiae.fromList(Fingerprint.extract(skeleton));
+				long t3 = System.nanoTime();
+				enrolmentNanos[DECODE][i] = t1 - t0;
+				enrolmentNanos[THIN][i] = t2 - t1;
+				enrolmentNanos[EXTRACT][i] = t3 - t2;
+			});
+			long enrolmentWallNanos = System.nanoTime() - start;
+
+			int pairs = n * (n - 1);
+			long[] matchNanos = new long[pairs];
+			boolean[] matches = new boolean[pairs];
+			start = System.nanoTime();
+			forEach(pairs, threads, executor, k -> {
+				int i = k / (n - 1);
+				int j = other(k, n);
+				long t0 = System.nanoTime();
+				matches[k] = engine.match(templates[i], templates[j]);
+				matchNanos[k] = System.nanoTime() - t0;
+			});
+			long matchWallNanos = System.nanoTime() - start;
+
+			int genuinePairs = 0;
+			int falseAccepts = 0;
+			int falseRejects = 0;
+			for (int k = 0; k < pairs; ++k) {
+				boolean genuine = fingers[k / (n - 1)].equals(fingers[other(k, n)]);
+				if (genuine) {
+					++genuinePairs;
+					if (!matches[k]) {
+						++falseRejects;
+					}
+				} else if (matches[k]) {
+					++falseAccepts;
+				}
+			}
+			long peakHeapBytes = 0;
+			for (MemoryPoolMXBean pool : heap) {
+				peakHeapBytes += pool.getPeakUsage().getUsed();
+			}
+			return new Result(engine, threads, enrolmentNanos, matchNanos, enrolmentWallNanos, matchWallNanos,
+					genuinePairs, falseAccepts, falseRejects, peakHeapBytes);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Returns the second image of a pair. The pair <code>k</code> compares the
+	 * image <code>k / (n - 1)</code> with the others in order.
+	 *
+	 * @param k the index of the pair.
+	 * @param n the number of images.
+	 * @return the index of the image compared with <code>k / (n - 1)</code>.
+	 */
+	private static int other(int k, int n) {
+		int i = k / (n - 1);
+		int j = k % (n - 1);
+		return j >= i ? j + 1 : j;
+	}
+
+	/**
+	 * Runs a task for every index on the given number of threads. The indices
+	 * are handed out one at a time, since the duration of a comparison varies a
+	 * lot between pairs.
+	 */
+	private static void forEach(int count, int threads, ExecutorService executor, IntConsumer task) {
+		AtomicInteger next = new AtomicInteger();
+		List<CompletableFuture<Void>> futures = new ArrayList<CompletableFuture<Void>>();
+		for (int thread = 0; thread < threads; ++thread) {
+			futures.add(CompletableFuture.runAsync(() -> {
+				for (int index = next.getAndIncrement(); index < count; index = next.getAndIncrement()) {
+					task.accept(index);
+				}
+			}, executor));
+		}
+		for (CompletableFuture<Void> future : futures) {
+			Tasks.join(future);
+		}
+	}
+
+	/**
+	 * Writes the results of the runs as JSON.
+	 *
+	 * @param path    the file.
+	 * @param results the results.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public void write(Path path, List<Result> results) throws IOException {
+		try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(path, StandardCharsets.UTF_8))) {
+			writer.println("{");
+			writer.println("  \"images\": " + images.size() + ",");
+			writer.println("  \"cores\": " + Runtime.getRuntime().availableProcessors() + ",");
+			writer.println("  \"java\": \"" + System.getProperty("java.version") + "\",");
+			writer.println("  \"thresholds\": {\"distance\": " + Fingerprint.DISTANCE_THRESHOLD + ", \"orientation\": "
+					+ Fingerprint.ORIENTATION_THRESHOLD + ", \"found\": " + Fingerprint.FOUND_THRESHOLD
+					+ ", \"angleOffset\": " + Fingerprint.MATCH_ANGLE_OFFSET + "},");
+			writer.println("  \"runs\": [");
+			for (int i = 0; i < results.size(); ++i) {
+				writer.println(results.get(i).toJson() + (i + 1 < results.size() ? "," : ""));
+			}
+			writer.println("  ]");
+			writer.println("}");
+		}
+	}
+
+	/**
+	 * Runs the benchmark, prints a summary of each run and writes the results.
+	 *
+	 * @param args the options, see the description of the class.
+	 * @throws IOException if the images cannot be listed or the results cannot
+	 *                     be written.
+	 */
+	public static void main(String[] args) throws IOException {
+		Path directory = Paths.get("fingerprints");
+		Path output = Paths.get("dataset-benchmark.json");
+		List<Engine> engines = Arrays.asList(Engine.values());
+		List<Integer> threads = new ArrayList<Integer>();
+		int limit = Integer.MAX_VALUE;
+		for (int i = 0; i < args.length; ++i) {
+			switch (args[i]) {
+			case "-dir":
+				directory = Paths.get(args[++i]);
+				break;
+			case "-output":
+				output = Paths.get(args[++i]);
+				break;
+			case "-engine":
+				String engine = args[++i];
+				engines = "all".equals(engine) ? Arrays.asList(Engine.values())
+						: Arrays.asList(Engine.valueOf(engine.toUpperCase(Locale.ROOT)));
+				break;
+			case "-threads":
+				for (String count : args[++i].split(",")) {
+					threads.add(Integer.parseInt(count.trim()));
+				}
+				break;
+			case "-limit":
+				limit = Integer.parseInt(args[++i]);
+				break;
+			default:
+				throw new IllegalArgumentException("unknown option " + args[i]);
+			}
+		}
+		if (threads.isEmpty()) {
+			threads.add(1);
+			if (Runtime.getRuntime().availableProcessors() > 1) {
+				threads.add(Runtime.getRuntime().availableProcessors());
+			}
+		}
+		List<Path> images = images(directory);
+		DatasetBenchmark benchmark = new DatasetBenchmark(images.subList(0, Math.min(limit, images.size())));
+
+		List<Result> results = new ArrayList<Result>();
+		for (Engine engine : engines) {
+			for (int count : threads) {
+				Result result = benchmark.run(engine, count);
+				System.out.println(result);
+				results.add(result);
+			}
+		}
+		benchmark.write(output, results);
+		System.out.println("Results written to " + output);
+	}
+}
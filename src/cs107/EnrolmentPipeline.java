@@ -0,0 +1,360 @@
+package cs107;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import javax.imageio.ImageIO;
+
+/**
+ * Batch enrolment of fingerprint images, as a pipeline of stages running
+ * concurrently.
+ * <p>
+ * Each {@link Stage} has its own threads and takes its work from a bounded
+ * queue filled by the previous stage. A stage that is faster than the next
+ * one blocks when the queue is full, so the images in flight stay bounded
+ * whatever the number of images, while the reads of the next images overlap
+ * with the thinning of the previous ones. An image that cannot be read or
+ * written is reported in the {@link Result} and does not stop the others.
+ */
+public final class EnrolmentPipeline {
+
+	/**
+	 * The stages of the pipeline, in order.
+	 */
+	public enum Stage {
+		/**
+		 * Reads the file and decodes the image.
+		 */
+		DECODE,
+		/**
+		 * Thresholds the image to a {@link BinaryImage}.
+		 */
+		BINARIZE,
+		/**
+		 * Thins the image with {@link Fingerprint#thin(BinaryImage)}.
+		 */
+		THIN,
+		/**
+		 * Extracts the minutiae with {@link Fingerprint#extract(BinaryImage)}.
+		 */
+		EXTRACT,
+		/**
+		 * Gives the minutiae to the sink, for instance to write the template.
+		 */
+		WRITE
+	}
+
+	/**
+	 * The extension of the templates written by
+	 * {@link #run(Path, Path)}.
+	 */
+	public static final String TEMPLATE_EXTENSION = ".fpt";
+
+	/**
+	 * Marks the end of the input of a stage, one per thread of the stage.
+	 */
+	private static final Item END = new Item(null, null);
+
+	private final int[] parallelism = new int[Stage.values().length];
+	private final int queueCapacity;
+
+	/**
+	 * Creates a pipeline with one thread per stage, and as many threads as cores
+	 * for the thinning and the extraction.
+	 *
+	 * @param queueCapacity the number of images that can wait before each stage.
+	 */
+	public EnrolmentPipeline(int queueCapacity) {
+		assert (queueCapacity > 0);
+		this.queueCapacity = queueCapacity;
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (Stage stage : Stage.values()) {
+			parallelism[stage.ordinal()] = stage == Stage.THIN || stage == Stage.EXTRACT ? cores : 1;
+		}
+	}
+
+	/**
+	 * Sets the number of threads of a stage.
+	 *
+	 * @param stage   the stage.
+	 * @param threads the number of threads, at least <code>1</code>.
+	 */
+	public void setParallelism(Stage stage, int threads) {
+		assert (threads > 0);
+		parallelism[stage.ordinal()] = threads;
+	}
+
+	/**
+	 * @param stage the stage.
+	 * @return the number of threads of the stage.
+	 */
+	public int parallelism(Stage stage) {
+		return parallelism[stage.ordinal()];
+	}
+
+	/**
+	 * Enrolls the PNG images of a directory, writing the template of
+	 * <code>name.png</code> in <code>name.fpt</code> in the output directory,
+	 * in the {@link TemplateFormat}.
+	 *
+	 * @param inputDirectory  the directory of the images.
+	 * @param outputDirectory the directory of the templates, created if needed.
+	 * @return the number of enrolled images and the failures.
+	 * @throws IOException          if a directory cannot be read or created.
+	 * @throws InterruptedException if the calling thread is interrupted.
+	 */
+	public Result run(Path inputDirectory, Path outputDirectory) throws IOException, InterruptedException {
+		Files.createDirectories(outputDirectory);
+		try (DirectoryStream<Path> images = Files.newDirectoryStream(inputDirectory, "*.png")) {
+			return run(images.iterator(), (path, minutiae) -> {
+				String name = path.getFileName().toString();
+				Path template = outputDirectory.resolve(name.substring(0, name.length() - 4) + TEMPLATE_EXTENSION);
+				try {
+					Files.write(template, TemplateFormat.encode(minutiae));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Enrolls images.
+	 * <p>
+	 * The paths are read on the calling thread as the first stage accepts them,
+	 * so they can come from a lazy source such as a directory stream.
+	 * <p>
+	 * An {@link UncheckedIOException} or an {@link IllegalArgumentException} of a
+	 * stage, as thrown when a file cannot be read or decoded, or by the sink,
+	 * only fails its image. Any other exception or error of a stage, which is a
+	 * bug rather than a bad image, and any exception of the iterator stop the
+	 * whole pipeline: every thread is interrupted and waited for, then the
+	 * exception is rethrown.
+	 *
+	 * @param paths the paths of the images.
+	 * @param sink  receives the path and the minutiae of each enrolled image,
+	 *              from the threads of {@link Stage#WRITE}.
+	 * @return the number of enrolled images and the failures.
+	 * @throws InterruptedException if the calling thread is interrupted, the
+	 *                              threads of the pipeline are then interrupted
+	 *                              too.
+	 */
+	public Result run(Iterator<Path> paths, BiConsumer<Path, Minutiae> sink) throws InterruptedException {
+		assert (paths != null && sink != null);
+		List<Function<Item, Object>> stages = new ArrayList<Function<Item, Object>>();
+		stages.add(item -> decode(item.path));
+		stages.add(item -> Helper.toBinaryImage((BufferedImage) item.value));
+		stages.add(item -> Fingerprint.thin((BinaryImage) item.value));
+		stages.add(item -> Minutiae.fromList(Fingerprint.extract((BinaryImage) item.value)));
+		stages.add(item -> {
+			sink.accept(item.path, (Minutiae) item.value);
+			return null;
+		});
+
+		// queues.get(s) is the input of the stage s
+		List<BlockingQueue<Item>> queues = new ArrayList<BlockingQueue<Item>>();
+		for (int s = 0; s < stages.size(); ++s) {
+			queues.add(new ArrayBlockingQueue<Item>(queueCapacity));
+		}
+		AtomicInteger enrolled = new AtomicInteger();
+		List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		// the first unexpected exception or error of a stage, which stops the pipeline
+		AtomicReference<Throwable> fatal = new AtomicReference<Throwable>();
+		Thread caller = Thread.currentThread();
+		for (int s = 0; s < stages.size(); ++s) {
+			Stage stage = Stage.values()[s];
+			Function<Item, Object> work = stages.get(s);
+			BlockingQueue<Item> input = queues.get(s);
+			BlockingQueue<Item> output = s + 1 < stages.size() ? queues.get(s + 1) : null;
+			int nextThreads = s + 1 < stages.size() ? parallelism[s + 1] : 0;
+			AtomicInteger running = new AtomicInteger(parallelism[s]);
+			for (int t = 0; t < parallelism[s]; ++t) {
+				Thread thread = new Thread(() -> {
+					try {
+						for (Item item = input.take(); item != END; item = input.take()) {
+							Object value;
+							try {
+								value = work.apply(item);
+							} catch (UncheckedIOException | IllegalArgumentException e) {
+								failures.add(item.path + ": " + stage.name().toLowerCase() + ": " + e);
+								continue;
+							}
+							if (output != null) {
+								output.put(new Item(item.path, value));
+							} else {
+								enrolled.incrementAndGet();
+							}
+						}
+					} catch (InterruptedException e) {
+						// the pipeline is cancelled, the flag stops the other stages in finally
+						Thread.currentThread().interrupt();
+					} catch (RuntimeException | Error e) {
+						// nothing would drain the queues of a stage whose threads all died, so
+						// every thread is stopped, and the caller, woken up, rethrows the error
+						if (fatal.compareAndSet(null, e)) {
+							for (Thread other : threads) {
+								other.interrupt();
+							}
+							caller.interrupt();
+						}
+						Thread.currentThread().interrupt();
+					} finally {
+						// the last thread of the stage ends the input of the next one, even if
+						// this thread stops on an error
+						if (running.decrementAndGet() == 0 && !Thread.currentThread().isInterrupted()) {
+							end(output, nextThreads);
+						}
+					}
+				}, "enrolment-" + stage.name().toLowerCase() + "-" + (t + 1));
+				thread.setDaemon(true);
+				threads.add(thread);
+			}
+		}
+
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		try {
+			while (paths.hasNext()) {
+				queues.get(0).put(new Item(paths.next(), null));
+			}
+			for (int i = 0; i < parallelism[0]; ++i) {
+				queues.get(0).put(END);
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		} catch (InterruptedException e) {
+			stop(threads);
+			if (fatal.get() == null) {
+				throw e;
+			}
+			// the interruption came from the stage that failed
+			Thread.interrupted();
+		} catch (RuntimeException | Error e) {
+			// thrown by the iterator
+			stop(threads);
+			if (fatal.get() != null) {
+				Thread.interrupted();
+			}
+			throw e;
+		}
+		if (fatal.get() instanceof RuntimeException) {
+			// the interruption of the stage that failed may have come after the joins
+			Thread.interrupted();
+			throw (RuntimeException) fatal.get();
+		} else if (fatal.get() != null) {
+			Thread.interrupted();
+			throw (Error) fatal.get();
+		}
+		return new Result(enrolled.get(), new ArrayList<String>(failures));
+	}
+
+	/**
+	 * Interrupts the threads of the pipeline and waits for them, keeping the
+	 * interrupted status of the calling thread.
+	 */
+	private static void stop(List<Thread> threads) {
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			thread.interrupt();
+		}
+		for (Thread thread : threads) {
+			while (thread.isAlive()) {
+				try {
+					thread.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Puts the end markers in the input of a stage.
+	 */
+	private static void end(BlockingQueue<Item> queue, int threads) {
+		try {
+			for (int i = 0; i < threads; ++i) {
+				queue.put(END);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads and decodes an image file.
+	 */
+	private static BufferedImage decode(Path path) {
+		try {
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(Files.readAllBytes(path)));
+			if (image == null) {
+				throw new IllegalArgumentException("unsupported image format");
+			}
+			return image;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * An image between two stages, with the result of the previous stage.
+	 */
+	private static final class Item {
+		private final Path path;
+		private final Object value;
+
+		Item(Path path, Object value) {
+			this.path = path;
+			this.value = value;
+		}
+	}
+
+	/**
+	 * The outcome of a run.
+	 */
+	public static final class Result {
+
+		private final int enrolled;
+		private final List<String> failures;
+
+		Result(int enrolled, List<String> failures) {
+			this.enrolled = enrolled;
+			this.failures = Collections.unmodifiableList(failures);
+		}
+
+		/**
+		 * @return the number of images given to the sink.
+		 */
+		public int enrolled() {
+			return enrolled;
+		}
+
+		/**
+		 * @return for each image that could not be enrolled, its path, the stage
+		 *         that failed and the exception.
+		 */
+		public List<String> failures() {
+			return failures;
+		}
+	}
+}
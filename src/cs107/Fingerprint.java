@@ -3,6 +3,9 @@ package cs107;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Provides tools to compare fingerprint.
@@ -37,6 +40,36 @@ public class Fingerprint {
 	 */
 	public static final int MATCH_ANGLE_OFFSET = 2;
 
+	/**
+	 * The minimum number of rows given to a task by
+	 * {@link #extract(BinaryImage, Executor)}.
+	 */
+	private static final int EXTRACT_MIN_BAND_ROWS = 8;
+
+	/**
+	 * The listener of the stages, or <code>null</code>.
+	 */
+	private static volatile FingerprintListener listener;
+
+	/**
+	 * Registers the listener receiving the durations and counters of
+	 * {@link #thin(BinaryImage)}, {@link #extract(BinaryImage)} and of the
+	 * comparisons of minutiae.
+	 *
+	 * @param listener the listener, or <code>null</code> to disable the
+	 *                 measures.
+	 */
+	public static void setListener(FingerprintListener listener) {
+		Fingerprint.listener = listener;
+	}
+
+	/**
+	 * @return the registered listener, or <code>null</code>.
+	 */
+	public static FingerprintListener listener() {
+		return listener;
+	}
+
 	/**
 	 * Returns an array containing the value of the 8 neighbours of the pixel at
 	 * coordinates <code>(row, col)</code>.
@@ -99,6 +132,30 @@ public class Fingerprint {
 		return neighbours;
 	}
 
+	/**
+	 * Returns an array containing the value of the 8 neighbours of the pixel at
+	 * coordinates <code>(row, col)</code>, following the same convention as
+	 * {@link #getNeighbours(boolean[][], int, int)}.
+	 *
+	 * @param image the packed image.
+	 * @param row   the row of the pixel of interest.
+	 * @param col   the column of the pixel of interest.
+	 * @return An array containing each neighbours' value, or <code>null</code> if
+	 *         the pixel is out of bounds.
+	 */
+	public static boolean[] getNeighbours(BinaryImage image, int row, int col) {
+		assert (image != null);
+		if (!image.contains(row, col)) {
+			return null;
+		}
+		// BinaryImage.get already considers the pixels out of bounds as white
+		boolean[] neighbours = { image.get(row - 1, col), image.get(row - 1, col + 1), image.get(row, col + 1),
+				image.get(row + 1, col + 1), image.get(row + 1, col), image.get(row + 1, col - 1),
+				image.get(row, col - 1), image.get(row - 1, col - 1) };
+
+		return neighbours;
+	}
+
 	/**
 	 * Computes the number of black (<code>true</code>) pixels among the neighbours
 	 * of a pixel.
@@ -173,6 +230,21 @@ public class Fingerprint {
 		}
 	}
 
+	/**
+	 * Returns <code>true</code> if the images are identical and false otherwise.
+	 *
+	 * @param image1 the first packed image.
+	 * @param image2 the second packed image.
+	 * @return <code>True</code> if they are identical, <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean identical(BinaryImage image1, BinaryImage image2) {
+		assert (image1 != null);
+		assert (image2 != null);
+		// the unused bits of each row are always zero, so comparing the words is enough
+		return image1.equals(image2);
+	}
+
 	/**
 	 * Internal method used by {@link #thin(boolean[][])}.
 	 *
@@ -181,53 +253,32 @@ public class Fingerprint {
 	 * @return A new array containing each pixel's value after the step.
 	 */
 	public static boolean[][] thinningStep(boolean[][] image, int step) {
-		int rowLength = image.length;
-		int colLength = image[0].length;
+		assert (image != null);
+		return thinningStep(BinaryImage.fromArray(image), step).toArray();
+	}
 
-		boolean[][] temp = new boolean[rowLength][colLength];
-		// we create a duplicate of the original image
-		for (int i = 0; i < rowLength; ++i) {
-			for (int j = 0; j < colLength; ++j) {
-				temp[i][j] = image[i][j];
-			}
-		}
+	/**
+	 * Internal method used by {@link #thin(BinaryImage)}.
+	 * <p>
+	 * The deletion conditions are read from the tables of {@link Neighbourhood}
+	 * instead of building the array of neighbours of every pixel.
+	 *
+	 * @param image the packed image.
+	 * @param step  the step to apply, Step 0 or Step 1.
+	 * @return A new image containing each pixel's value after the step.
+	 */
+	public static BinaryImage thinningStep(BinaryImage image, int step) {
+		assert (image != null);
+		int rowLength = image.height();
+		int colLength = image.width();
+
+		BinaryImage temp = image.copy(); // we create a duplicate of the original image
 		for (int i = 0; i < rowLength; ++i) {
 			for (int j = 0; j < colLength; ++j) {
-				boolean[] neighbours = getNeighbours(image, i, j); // get the neighbours of the pixel
-				int blackNeighbours = blackNeighbours(neighbours); // count its black neighbours
-				int transitions = transitions(neighbours); // count the transitions from white to black
-				// if the pixel is black
-				if (image[i][j]) {
-					if (neighbours != null) {
-						// if the number of black neighbours is between 2 and 6
-						if (2 <= blackNeighbours && blackNeighbours <= 6) {
-							// if there is only one transition
-							if (transitions == 1) {
-								// step 1 (only the last two conditions differs from step 2)
-								if (step == 0) {
-									// if p0 or p2 or p4 is white
-									if (neighbours[0] == false || neighbours[2] == false || neighbours[4] == false) {
-										// if p2 or p4 or p6 is white
-										if (neighbours[2] == false || neighbours[4] == false
-												|| neighbours[6] == false) {
-											temp[i][j] = false; // set the pixel to false
-										}
-									}
-								}
-								// step 2
-								else if (step == 1) {
-									// if p0 or p2 or p6 is white
-									if (neighbours[0] == false || neighbours[2] == false || neighbours[6] == false) {
-										// if p0 or p4 or p6 is white
-										if (neighbours[0] == false || neighbours[4] == false
-												|| neighbours[6] == false) {
-											temp[i][j] = false; // set the pixel to false
-										}
-									}
-								}
-							}
-						}
-					}
+				// if the pixel is black and its neighbourhood satisfies the conditions of the
+				// step (see Neighbourhood for the precomputed conditions)
+				if (image.get(i, j) && Neighbourhood.removable(Neighbourhood.code(image, i, j), step)) {
+					temp.set(i, j, false); // set the pixel to false
 				}
 			}
 		}
@@ -244,38 +295,57 @@ public class Fingerprint {
 	 */
 	public static boolean[][] thin(boolean[][] image) {
 		assert (image != null);
+		return thin(BinaryImage.fromArray(image)).toArray();
+	}
 
-		int rowLength = image.length;
-		int colLength = image[0].length;
-		boolean[][] tempImage = new boolean[rowLength][colLength];
-		boolean[][] finalImage = new boolean[rowLength][colLength];
-
-		// we create a duplicate of the original image
-		for (int i = 0; i < rowLength; ++i) {
-			for (int j = 0; j < colLength; ++j) {
-				tempImage[i][j] = image[i][j];
-			}
+	/**
+	 * Compute the skeleton of a packed image.
+	 * <p>
+	 * The steps are evaluated 64 pixels at a time by {@link BitwiseThinning}, and
+	 * after the first iteration only the words around the pixels that changed are
+	 * evaluated again. The result is the same as repeating
+	 * {@link #thinningStep(BinaryImage, int)} until the image does not change
+	 * anymore.
+	 *
+	 * @param image the packed image, it is not modified.
+	 * @return the image after applying the thinning algorithm.
+	 */
+	public static BinaryImage thin(BinaryImage image) {
+		assert (image != null);
+		FingerprintListener current = listener;
+		if (current == null) {
+			return BitwiseThinning.thinIncremental(image);
 		}
-		// we apply the two first steps once
-		finalImage = thinningStep(tempImage, 0);
-		finalImage = thinningStep(finalImage, 1);
+		long start = System.nanoTime();
+		int[] iterations = new int[1];
+		BinaryImage skeleton = BitwiseThinning.thinIncremental(image, iterations);
+		current.thinned(image.height(), image.width(), iterations[0], System.nanoTime() - start);
+		return skeleton;
+	}
 
-		// while the temporary image and the final one are not identical
-		while (!identical(tempImage, finalImage)) {
-			// we replace the tempImage by the previous finalImage
-			for (int i = 0; i < rowLength; ++i) {
-				for (int j = 0; j < colLength; ++j) {
-					tempImage[i][j] = finalImage[i][j];
-				}
-			}
-			// then we can modify finalImage with thinningStep
-			finalImage = thinningStep(tempImage, 0);
-			finalImage = thinningStep(finalImage, 1);
-			// when the tempImage (i.e finalImage minus the last two steps of thinningStep)
-			// is identical to the final version finalImage, we exit the loop
+	/**
+	 * Compute the skeleton of a packed image, using several threads.
+	 * <p>
+	 * Every step is split in bands of rows run by the executor. The result is the
+	 * same as {@link #thin(BinaryImage)}, which is faster on small images.
+	 *
+	 * @param image    the packed image, it is not modified.
+	 * @param executor the executor running the bands, for instance
+	 *                 {@link ForkJoinPool#commonPool()}.
+	 * @return the image after applying the thinning algorithm.
+	 */
+	public static BinaryImage thin(BinaryImage image, Executor executor) {
+		assert (image != null);
+		assert (executor != null);
+		FingerprintListener current = listener;
+		if (current == null) {
+			return BitwiseThinning.thin(image, executor);
 		}
-
-		return finalImage;
+		long start = System.nanoTime();
+		int[] iterations = new int[1];
+		BinaryImage skeleton = BitwiseThinning.thin(image, executor, iterations);
+		current.thinned(image.height(), image.width(), iterations[0], System.nanoTime() - start);
+		return skeleton;
 	}
 
 	/**
@@ -292,55 +362,94 @@ public class Fingerprint {
 	 */
 	public static boolean[][] connectedPixels(boolean[][] image, int row, int col, int distance) {
 		assert (image != null);
+		BinaryImage connectedPixels = connectedPixels(BinaryImage.fromArray(image), row, col, distance);
+		return connectedPixels == null ? null : connectedPixels.toArray();
+	}
+
+	/**
+	 * Computes all pixels that are connected to the pixel at coordinate
+	 * <code>(row, col)</code> and within the given distance of the pixel.
+	 *
+	 * @param image    the packed image.
+	 * @param row      the first coordinate of the pixel of interest.
+	 * @param col      the second coordinate of the pixel of interest.
+	 * @param distance the maximum distance at which a pixel is considered.
+	 * @return An image of the same size where black pixels are within
+	 *         <code>distance</code> and connected to the pixel at
+	 *         <code>(row, col)</code>.
+	 * @see #connectedPixelsWindow(BinaryImage, int, int, int)
+	 */
+	public static BinaryImage connectedPixels(BinaryImage image, int row, int col, int distance) {
+		assert (image != null);
+		PixelWindow connectedPixels = connectedPixelsWindow(image, row, col, distance);
+		return connectedPixels == null ? null : connectedPixels.toImage(image.height(), image.width());
+	}
+
+	/**
+	 * Computes all pixels that are connected to the pixel at coordinate
+	 * <code>(row, col)</code> and within the given distance of the pixel.
+	 * <p>
+	 * Only the square of size <code>2*distance+1</code> centered on the pixel is
+	 * allocated.
+	 *
+	 * @param image    the packed image.
+	 * @param row      the first coordinate of the pixel of interest.
+	 * @param col      the second coordinate of the pixel of interest.
+	 * @param distance the maximum distance at which a pixel is considered.
+	 * @return A window, clipped to the image, where black pixels are within
+	 *         <code>distance</code> and connected to the pixel at
+	 *         <code>(row, col)</code>, or <code>null</code> if the pixel is out of
+	 *         bounds.
+	 */
+	public static PixelWindow connectedPixelsWindow(BinaryImage image, int row, int col, int distance) {
+		assert (image != null);
 
 		// if the pixel is out of bound
-		if (row < 0 || row >= image.length || col < 0 || col >= image[0].length) {
+		if (!image.contains(row, col)) {
 			return null;
 		}
 
-		boolean[][] connectedPixels = new boolean[image.length][image[0].length];// we create a table named
-																					// connectedPixels which has the
-																					// same size as the table image and
-																					// it is filled by false
-		boolean newConnected = true;
-
-		while (newConnected) { // while we keep finding new connected pixels at each passing
-			newConnected = false;
-			for (int rowPixel = 0; rowPixel < image.length; ++rowPixel) {
-				for (int colPixel = 0; colPixel < image[0].length; ++colPixel) {
-					// if the pixel is black
-					if (image[rowPixel][colPixel]) {
-						// if it's the square of size 2*distance+1 centered on the minutia of
-						// coordinates row, col
-						if ((row - distance <= rowPixel) && (rowPixel <= row + distance) && (col - distance <= colPixel)
-								&& (colPixel <= col + distance) && (!(connectedPixels[rowPixel][colPixel]))) {
-							if ((row - 1 <= rowPixel) && (rowPixel <= row + 1) && (col - 1 <= colPixel)
-									&& (colPixel <= col + 1)) { // if the pixel is a neighbour of the minutiae
-								connectedPixels[rowPixel][colPixel] = true; // then it's a connected pixel
-								newConnected = true; // found a new pixel, the loop does not stop
-							} else { // if the pixel is not a neighbour, we check if its connected to a neighbour
-								for (int i = 0; i < connectedPixels.length; ++i) {
-									for (int j = 0; j < connectedPixels[0].length; ++j) {
-										if (connectedPixels[i][j] == true) { // if there's a connected pixel of
-																				// coordinates i,j
-											if ((i - 1 <= rowPixel) && (rowPixel <= i + 1) && (j - 1 <= colPixel)
-													&& (colPixel <= j + 1)) { // that is a neighbour of our pixel
-																				// [rowPixel][colPixel]
-												connectedPixels[rowPixel][colPixel] = true; // our pixel is a connected
-																							// pixel
-												newConnected = true; // found a new pixel, the loop does not stop
-											}
-										}
-									}
-								}
-							}
-						}
+		// the square of size 2*distance+1 centered on the minutia, clipped to the image
+		int minRow = Math.max(0, row - distance);
+		int maxRow = Math.min(image.height() - 1, row + distance);
+		int minCol = Math.max(0, col - distance);
+		int maxCol = Math.min(image.width() - 1, col + distance);
+		if (minRow > maxRow || minCol > maxCol) {
+			return new PixelWindow(row, col, new BinaryImage(0, 0));
+		}
+		int windowWidth = maxCol - minCol + 1;
+		// filled by false
+		BinaryImage connectedPixels = new BinaryImage(maxRow - minRow + 1, windowWidth);
+
+		// breadth-first search from the black pixels around the minutia, a pixel is
+		// queued at most once since it is marked as connected when it is queued. The
+		// coordinates in the queue and in connectedPixels are relative to the window.
+		int[] queue = new int[connectedPixels.height() * windowWidth];
+		int head = 0;
+		int tail = 0;
+		for (int i = Math.max(minRow, row - 1); i <= Math.min(maxRow, row + 1); ++i) {
+			for (int j = Math.max(minCol, col - 1); j <= Math.min(maxCol, col + 1); ++j) {
+				if (image.get(i, j)) {
+					connectedPixels.set(i - minRow, j - minCol, true);
+					queue[tail++] = (i - minRow) * windowWidth + (j - minCol);
+				}
+			}
+		}
+		while (head < tail) {
+			int pixelRow = minRow + queue[head] / windowWidth;
+			int pixelCol = minCol + queue[head] % windowWidth;
+			++head;
+			// visit the black neighbours of the pixel that are in the window
+			for (int i = Math.max(minRow, pixelRow - 1); i <= Math.min(maxRow, pixelRow + 1); ++i) {
+				for (int j = Math.max(minCol, pixelCol - 1); j <= Math.min(maxCol, pixelCol + 1); ++j) {
+					if (image.get(i, j) && !connectedPixels.get(i - minRow, j - minCol)) {
+						connectedPixels.set(i - minRow, j - minCol, true);
+						queue[tail++] = (i - minRow) * windowWidth + (j - minCol);
 					}
 				}
 			}
 		}
-		return connectedPixels;
-
+		return new PixelWindow(minRow, minCol, connectedPixels);
 	}
 
 	/**
@@ -354,36 +463,69 @@ public class Fingerprint {
 	 */
 	public static double computeSlope(boolean[][] connectedPixels, int row, int col) {
 		assert (connectedPixels != null);
+		return computeSlope(BinaryImage.fromArray(connectedPixels), row, col);
+	}
 
-		double slope = 0.0;// we initialize slope
-		ArrayList<Double> X = new ArrayList<Double>();// arraylist of double named X for the coordinates X
-		ArrayList<Double> Y = new ArrayList<Double>();// arraylist of double named Y for the coordinates Y
-		for (int i = 0; i < connectedPixels.length; i++) {// go through all the rows of connectedPixels
-			for (int j = 0; j < connectedPixels[0].length; j++) {// go through all the columns of connectedPixels
-				if (connectedPixels[i][j]) {// if true we change the coordinates of the pixel putting the minutia as our
-											// origin
-					double rowY = row - i;
-					Y.add(rowY);
-					double colX = j - col;
-					X.add(colX);
+	/**
+	 * Computes the slope of a minutia using linear regression.
+	 *
+	 * @param connectedPixels the result of
+	 *                        {@link #connectedPixels(BinaryImage, int, int, int)}.
+	 * @param row             the row of the minutia.
+	 * @param col             the col of the minutia.
+	 * @return the slope.
+	 */
+	public static double computeSlope(BinaryImage connectedPixels, int row, int col) {
+		assert (connectedPixels != null);
+		return computeSlope(new PixelWindow(0, 0, connectedPixels), row, col);
+	}
+
+	/**
+	 * Computes the slope of a minutia using linear regression.
+	 *
+	 * @param connectedPixels the result of
+	 *                        {@link #connectedPixelsWindow(BinaryImage, int, int, int)}.
+	 * @param row             the row of the minutia.
+	 * @param col             the col of the minutia.
+	 * @return the slope.
+	 */
+	public static double computeSlope(PixelWindow connectedPixels, int row, int col) {
+		assert (connectedPixels != null);
+		BinaryImage pixels = connectedPixels.pixels();
+		// coordinates of the minutia relative to the window
+		row -= connectedPixels.originRow();
+		col -= connectedPixels.originCol();
+
+		// the coordinates are integers, so the sums are exact whatever the order in
+		// which the pixels are visited
+		long sumX2 = 0;// sum of the square of all x coordinates
+		long sumY2 = 0;// sum of the square of all y coordinates
+		long sumXY = 0;// sum of xy
+		for (int i = 0; i < pixels.height(); i++) {// go through all the rows of connectedPixels
+			for (int j = 0; j < pixels.width(); j++) {// go through all the columns of connectedPixels
+				if (pixels.get(i, j)) {// we change the coordinates of the pixel putting the minutia as our origin
+					long y = row - i;
+					long x = j - col;
+					sumX2 += x * x;
+					sumY2 += y * y;
+					sumXY += x * y;
 				}
 			}
 		}
-		int v;
-		double sumX2 = 0.0;// sum of the square of all x coordinates
-		for (v = 0; v < X.size(); ++v) {
-			sumX2 = sumX2 + (X.get(v) * X.get(v));
-		}
-		int w;
-		double sumY2 = 0.0;// sum of the square of all y coordinates
-		for (w = 0; w < Y.size(); ++w) {
-			sumY2 = sumY2 + (Y.get(w) * Y.get(w));
-		}
-		int m;
-		double sumXY = 0.0;// we do the sum of xy
-		for (m = 0; m < X.size() && m < Y.size(); ++m) {
-			sumXY = sumXY + (X.get(m) * Y.get(m));
-		}
+		return slope(sumX2, sumY2, sumXY);
+	}
+
+	/**
+	 * Computes the slope of the linear regression from the moments of the
+	 * connected pixels.
+	 *
+	 * @param sumX2 the sum of the square of all x coordinates.
+	 * @param sumY2 the sum of the square of all y coordinates.
+	 * @param sumXY the sum of xy.
+	 * @return the slope.
+	 */
+	private static double slope(double sumX2, double sumY2, double sumXY) {
+		double slope = 0.0;// we initialize slope
 		if (sumX2 == 0.0) {
 			slope = Double.POSITIVE_INFINITY;
 		} else if (sumX2 >= sumY2) {// the equation of the slope if the sum of the square of all x coordinates are
@@ -409,57 +551,173 @@ public class Fingerprint {
 	 */
 	public static double computeAngle(boolean[][] connectedPixels, int row, int col, double slope) {
 		assert (connectedPixels != null);
+		return computeAngle(BinaryImage.fromArray(connectedPixels), row, col, slope);
+	}
+
+	/**
+	 * Computes the orientation of a minutia in radians.
+	 * 
+	 * @param connectedPixels the result of
+	 *                        {@link #connectedPixels(BinaryImage, int, int, int)}.
+	 * @param row             the row of the minutia.
+	 * @param col             the col of the minutia.
+	 * @param slope           the slope as returned by
+	 *                        {@link #computeSlope(BinaryImage, int, int)}.
+	 * @return the orientation of the minutia in radians.
+	 */
+	public static double computeAngle(BinaryImage connectedPixels, int row, int col, double slope) {
+		assert (connectedPixels != null);
+		return computeAngle(new PixelWindow(0, 0, connectedPixels), row, col, slope);
+	}
+
+	/**
+	 * Computes the orientation of a minutia in radians.
+	 * 
+	 * @param connectedPixels the result of
+	 *                        {@link #connectedPixelsWindow(BinaryImage, int, int, int)}.
+	 * @param row             the row of the minutia.
+	 * @param col             the col of the minutia.
+	 * @param slope           the slope as returned by
+	 *                        {@link #computeSlope(PixelWindow, int, int)}.
+	 * @return the orientation of the minutia in radians.
+	 */
+	public static double computeAngle(PixelWindow connectedPixels, int row, int col, double slope) {
+		assert (connectedPixels != null);
+		BinaryImage pixels = connectedPixels.pixels();
+		// coordinates of the minutia relative to the window
+		row -= connectedPixels.originRow();
+		col -= connectedPixels.originCol();
 
-		double angle = 0.0;
 		int Up = 0;
 		int Down = 0;
 		// we change the coordinates according to the minutia as the center
-		for (int i = 0; i < connectedPixels.length; ++i) {
-			for (int j = 0; j < connectedPixels[0].length; ++j) {
-				if (connectedPixels[i][j]) {
-					double y = row - i;
-					double x = j - col;
-					// if the slope is equal to zero, we look the ups and downs with the
-					// perpendicular axis
-					if (slope == 0.0) {
-						if (x > 0) {
-							Up++;
-						} else {
-							Down++;
-						}
-
-					} else if (slope == Double.POSITIVE_INFINITY) {// if slope is equal to infinity, we can already look
-																	// the ups and downs with the perpendicular axis
-						if (y > 0) {
-							Up++;
-						} else {
-							Down++;
-						}
+		for (int i = 0; i < pixels.height(); ++i) {
+			for (int j = 0; j < pixels.width(); ++j) {
+				if (pixels.get(i, j)) {
+					if (isUp(slope, j - col, row - i)) {
+						Up++;
 					} else {
-						if (y >= (-1 / slope) * x) {
-							Up++;
-						} else {
-							Down++;
-						}
+						Down++;
 					}
 				}
-			} // we can now find the angle
-			if (slope == Double.POSITIVE_INFINITY) {
-				if (Up > Down) {
-					angle = Math.PI / 2;
-				} else {
-					angle = -Math.PI / 2;
-				}
+			}
+		}
+		return angle(slope, Up, Down);
+	}
+
+	/**
+	 * Returns <code>true</code> if a connected pixel is above the perpendicular to
+	 * the slope.
+	 *
+	 * @param slope the slope of the minutia.
+	 * @param x     the x coordinate of the pixel, the minutia being the origin.
+	 * @param y     the y coordinate of the pixel, the minutia being the origin.
+	 * @return <code>true</code> if the pixel counts as up, <code>false</code> if
+	 *         it counts as down.
+	 */
+	private static boolean isUp(double slope, double x, double y) {
+		// if the slope is equal to zero, we look the ups and downs with the
+		// perpendicular axis
+		if (slope == 0.0) {
+			return x > 0;
+		} else if (slope == Double.POSITIVE_INFINITY) {// if slope is equal to infinity, we can already look the ups
+														// and downs with the perpendicular axis
+			return y > 0;
+		} else {
+			return y >= (-1 / slope) * x;
+		}
+	}
+
+	/**
+	 * Computes the orientation of a minutia in radians from its slope and from the
+	 * number of connected pixels on each side of the perpendicular to the slope.
+	 *
+	 * @param slope the slope of the minutia.
+	 * @param Up    the number of connected pixels above the perpendicular.
+	 * @param Down  the number of connected pixels below the perpendicular.
+	 * @return the orientation of the minutia in radians.
+	 */
+	private static double angle(double slope, int Up, int Down) {
+		double angle = 0.0;
+		// we can now find the angle
+		if (slope == Double.POSITIVE_INFINITY) {
+			if (Up > Down) {
+				angle = Math.PI / 2;
 			} else {
-				angle = Math.atan(slope);
-				if ((Up > Down && angle < 0.0) || (Down >= Up && angle >= 0.0)) {
-					angle = angle + Math.PI;
-				}
+				angle = -Math.PI / 2;
+			}
+		} else {
+			angle = Math.atan(slope);
+			if ((Up > Down && angle < 0.0) || (Down >= Up && angle >= 0.0)) {
+				angle = angle + Math.PI;
 			}
 		}
 		return angle;
 	}
 
+	/**
+	 * Computes the orientation of a minutia in radians, giving the same result as
+	 * {@link #computeSlope(PixelWindow, int, int)} followed by
+	 * {@link #computeAngle(PixelWindow, int, int, double)}.
+	 * <p>
+	 * The window is scanned word by word to gather the moments needed by the
+	 * slope, then a second time to count the pixels above and below the
+	 * perpendicular to the slope. The window has at most a few dozen words, so
+	 * visiting its set bits twice is cheaper than storing their coordinates.
+	 *
+	 * @param connectedPixels the result of
+	 *                        {@link #connectedPixelsWindow(BinaryImage, int, int, int)}.
+	 * @param row             the row of the minutia.
+	 * @param col             the col of the minutia.
+	 * @return the orientation of the minutia in radians.
+	 */
+	private static double orientation(PixelWindow connectedPixels, int row, int col) {
+		BinaryImage pixels = connectedPixels.pixels();
+		long[] words = pixels.words();
+		int wordsPerRow = pixels.wordsPerRow();
+		// coordinates of the minutia relative to the window
+		row -= connectedPixels.originRow();
+		col -= connectedPixels.originCol();
+
+		long sumX2 = 0;
+		long sumY2 = 0;
+		long sumXY = 0;
+		for (int i = 0; i < pixels.height(); ++i) {
+			for (int w = 0; w < wordsPerRow; ++w) {
+				long word = words[i * wordsPerRow + w];
+				// visit the set bits of the word
+				while (word != 0L) {
+					int j = w * BinaryImage.WORD_SIZE + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					int y = row - i;
+					int x = j - col;
+					sumX2 += (long) x * x;
+					sumY2 += (long) y * y;
+					sumXY += (long) x * y;
+				}
+			}
+		}
+		double slope = slope(sumX2, sumY2, sumXY);
+
+		int Up = 0;
+		int Down = 0;
+		for (int i = 0; i < pixels.height(); ++i) {
+			for (int w = 0; w < wordsPerRow; ++w) {
+				long word = words[i * wordsPerRow + w];
+				while (word != 0L) {
+					int j = w * BinaryImage.WORD_SIZE + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					if (isUp(slope, j - col, row - i)) {
+						Up++;
+					} else {
+						Down++;
+					}
+				}
+			}
+		}
+		return angle(slope, Up, Down);
+	}
+
 	/**
 	 * Computes the orientation of the minutia that the coordinate <code>(row,
 	 * col)</code>.
@@ -473,12 +731,27 @@ public class Fingerprint {
 	 */
 	public static int computeOrientation(boolean[][] image, int row, int col, int distance) {
 		assert (image != null);
+		return computeOrientation(BinaryImage.fromArray(image), row, col, distance);
+	}
+
+	/**
+	 * Computes the orientation of the minutia that the coordinate <code>(row,
+	 * col)</code>.
+	 *
+	 * @param image    the packed image.
+	 * @param row      the first coordinate of the pixel of interest.
+	 * @param col      the second coordinate of the pixel of interest.
+	 * @param distance the distance to be considered in each direction to compute
+	 *                 the orientation.
+	 * @return The orientation in degrees.
+	 */
+	public static int computeOrientation(BinaryImage image, int row, int col, int distance) {
+		assert (image != null);
 
 		int orientationAngle = 0; // initialize orientationAngle
-		boolean[][] connectedPixels = connectedPixels(image, row, col, distance); // get the connected pixels of the
-																					// minutia in the image
-		double slope = computeSlope(connectedPixels, row, col); // get the slope of connectedPixels
-		double angle = computeAngle(connectedPixels, row, col, slope); // get the angle
+		PixelWindow connectedPixels = connectedPixelsWindow(image, row, col, distance); // get the connected pixels of
+																						// the minutia in the image
+		double angle = orientation(connectedPixels, row, col); // get the angle
 
 		double angleDegree = Math.round(Math.toDegrees(angle));// change the angle from radians to degrees
 		orientationAngle = (int) angleDegree; // convert to integer
@@ -500,13 +773,97 @@ public class Fingerprint {
 	 * @see #thin(boolean[][])
 	 */
 	public static List<int[]> extract(boolean[][] image) {
+		assert (image != null);
+		return extract(BinaryImage.fromArray(image));
+	}
+
+	/**
+	 * Extracts the minutiae from a thinned packed image.
+	 *
+	 * @param image the packed image.
+	 * @return The list of all minutiae, as described in
+	 *         {@link #extract(boolean[][])}.
+	 * @see #thin(BinaryImage)
+	 */
+	public static List<int[]> extract(BinaryImage image) {
+		assert (image != null);
+		FingerprintListener current = listener;
+		long start = current == null ? 0 : System.nanoTime();
 		List<int[]> extract = new ArrayList<int[]>();// list of arrays of integers
+		int candidates = extract(image, 1, image.height() - 1, extract);
+		if (current != null) {
+			current.extracted(candidates, extract.size(), System.nanoTime() - start);
+		}
+		return extract;
+
+	}
+
+	/**
+	 * Extracts the minutiae from a thinned packed image, using several threads.
+	 * <p>
+	 * The image is split in bands of rows that are processed independently by the
+	 * executor, the skeleton being only read. The minutiae are returned in the
+	 * same order as {@link #extract(BinaryImage)}.
+	 *
+	 * @param image    the packed image.
+	 * @param executor the executor running the bands, for instance
+	 *                 {@link ForkJoinPool#commonPool()}.
+	 * @return The list of all minutiae, as described in
+	 *         {@link #extract(boolean[][])}.
+	 */
+	public static List<int[]> extract(BinaryImage image, Executor executor) {
+		assert (image != null);
+		assert (executor != null);
+		FingerprintListener current = listener;
+		long start = current == null ? 0 : System.nanoTime();
+		int fromRow = 1;
+		int toRow = image.height() - 1;
+		int rows = Math.max(0, toRow - fromRow);
+		int bands = Tasks.count(rows, EXTRACT_MIN_BAND_ROWS);
+
+		List<CompletableFuture<List<int[]>>> futures = new ArrayList<CompletableFuture<List<int[]>>>();
+		// the number of candidates of each band, visible once the band is joined
+		int[] candidates = new int[bands];
+		for (int band = 0; band < bands; ++band) {
+			int bandIndex = band;
+			int bandFrom = fromRow + (int) ((long) rows * band / bands);
+			int bandTo = fromRow + (int) ((long) rows * (band + 1) / bands);
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				List<int[]> minutiae = new ArrayList<int[]>();
+				candidates[bandIndex] = extract(image, bandFrom, bandTo, minutiae);
+				return minutiae;
+			}, executor));
+		}
+
+		// the bands are joined in order, so the minutiae stay sorted by row then column
+		List<int[]> extract = new ArrayList<int[]>();
+		for (CompletableFuture<List<int[]>> future : futures) {
+			extract.addAll(Tasks.join(future));
+		}
+		if (current != null) {
+			current.extracted(Arrays.stream(candidates).sum(), extract.size(), System.nanoTime() - start);
+		}
+		return extract;
+	}
 
-		for (int row = 1; row < image.length - 1; ++row) { // go through all the rows of image
-			for (int col = 1; col < image[0].length - 1; ++col) { // go through all the columns of image
-				if (image[row][col]) {
-					boolean[] neighbours = getNeighbours(image, row, col);
-					int transitions = transitions(neighbours);
+	/**
+	 * Extracts the minutiae of the rows <code>[fromRow, toRow)</code> of a thinned
+	 * packed image.
+	 *
+	 * @param image   the packed image.
+	 * @param fromRow the first row to scan (included), at least <code>1</code>.
+	 * @param toRow   the last row to scan (excluded), at most
+	 *                <code>image.height() - 1</code>.
+	 * @param extract the list to which the minutiae are added.
+	 * @return the number of black pixels examined.
+	 */
+	private static int extract(BinaryImage image, int fromRow, int toRow, List<int[]> extract) {
+		int candidates = 0;
+		for (int row = fromRow; row < toRow; ++row) { // go through the rows of the band
+			for (int col = 1; col < image.width() - 1; ++col) { // go through all the columns of image
+				if (image.get(row, col)) {
+					++candidates;
+					int transitions = Neighbourhood.transitions(Neighbourhood.code(image, row, col));
 					if (transitions == 1 || transitions == 3) {// if it is 1 or 3 it is a minutia
 						int[] coordinates = new int[3];// we set the size of the tables of integers at 3
 						coordinates[0] = row;// we put the coordinate of its row in the first element of the table
@@ -520,8 +877,7 @@ public class Fingerprint {
 				}
 			}
 		}
-		return extract;
-
+		return candidates;
 	}
 
 	/**
@@ -534,13 +890,14 @@ public class Fingerprint {
 	 * @return the minutia rotated around the given center.
 	 */
 	public static int[] applyRotation(int[] minutia, int centerRow, int centerCol, int rotation) {
-		// convert from degrees to radians
-		double radRotation = rotation * (Math.PI / 180);
+		// the cosine and sine of the rotation, read from the table of whole degrees
+		double cos = Trigonometry.cos(rotation);
+		double sin = Trigonometry.sin(rotation);
 
 		int x = minutia[1] - centerCol; // col is minutia[1], apply a translation of centerCol
 		int y = centerRow - minutia[0]; // row is minutia[0], apply a translation of centerRow
-		double newX = x * Math.cos(radRotation) - y * Math.sin(radRotation); // apply a rotation on x
-		double newY = x * Math.sin(radRotation) + y * Math.cos(radRotation); // apply a rotation on y
+		double newX = x * cos - y * sin; // apply a rotation on x
+		double newY = x * sin + y * cos; // apply a rotation on y
 		int newRow = (int) (Math.round(centerRow - newY)); // round the new row obtained and convert to int
 		int newCol = (int) (Math.round(newX + centerCol)); // same with the new column
 		int newOrientation = (int) ((minutia[2] + rotation) % 360); // orientation is minutia[2], apply a rotation
@@ -628,27 +985,137 @@ public class Fingerprint {
 	 */
 	public static int matchingMinutiaeCount(List<int[]> minutiae1, List<int[]> minutiae2, int maxDistance,
 			int maxOrientation) {
+		// the minutiae of minutiae2 are put in a grid so that each minutia of
+		// minutiae1 is only compared to the close ones
+		MinutiaeGrid grid = new MinutiaeGrid();
+		grid.build(minutiae2, maxDistance);
+
+		// initialize matchingMinutiaeCount at 0
+		int matchingMinutiaeCount = 0;
+		for (int i = 0; i < minutiae1.size(); ++i) {
+			int[] m1 = minutiae1.get(i); // get the ith entry of minutiae1
+			if (grid.hasMatch(m1[0], m1[1], m1[2], maxDistance, maxOrientation)) {
+				matchingMinutiaeCount++; // found a match, add 1 to the count
+			}
+		}
+		return matchingMinutiaeCount;
+	}
+
+	/**
+	 * Counts the number of overlapping minutiae, stopping as soon as the count is
+	 * known to be above or below a threshold.
+	 * <p>
+	 * The minutiae of <code>minutiae2</code> are put in a grid with cells of size
+	 * <code>maxDistance</code>, so each minutia of <code>minutiae1</code> is only
+	 * compared with the minutiae of the neighbouring cells. The orientations are
+	 * compared with the same plain difference as
+	 * {@link #matchingMinutiaeCount(List, List, int, int)}, so minutiae whose
+	 * orientation went below <code>0</code> or above <code>360</code> after a
+	 * rotation are counted the same way.
+	 *
+	 * @param minutiae1      the first set of minutiae.
+	 * @param minutiae2      the second set of minutiae.
+	 * @param maxDistance    the maximum distance between two minutiae to consider
+	 *                       them as overlapping.
+	 * @param maxOrientation the maximum difference of orientation between two
+	 *                       minutiae to consider them as overlapping.
+	 * @param threshold      the count from which the exact value does not matter.
+	 * @return the number of overlapping minutiae if it is below
+	 *         <code>threshold</code> and can still reach it, otherwise a value that
+	 *         is at least <code>threshold</code> if and only if the number of
+	 *         overlapping minutiae is.
+	 */
+	public static int matchingMinutiaeCount(List<int[]> minutiae1, List<int[]> minutiae2, int maxDistance,
+			int maxOrientation, int threshold) {
+		MinutiaeGrid grid = new MinutiaeGrid();
+		grid.build(minutiae2, maxDistance);
+		return matchingMinutiaeCount(minutiae1, grid, maxDistance, maxOrientation, threshold);
+	}
+
+	/**
+	 * Counts the number of minutiae of <code>minutiae1</code> overlapping a
+	 * minutia of the grid, as described in
+	 * {@link #matchingMinutiaeCount(List, List, int, int, int)}.
+	 */
+	private static int matchingMinutiaeCount(List<int[]> minutiae1, MinutiaeGrid grid, int maxDistance,
+			int maxOrientation, int threshold) {
 		// initialize matchingMinutiaeCount at 0
 		int matchingMinutiaeCount = 0;
 
 		for (int i = 0; i < minutiae1.size(); ++i) {
+			// stop when the threshold is reached, or when it cannot be reached even if all
+			// the remaining minutiae match
+			if (matchingMinutiaeCount >= threshold || matchingMinutiaeCount + minutiae1.size() - i < threshold) {
+				break;
+			}
 			int[] m1 = minutiae1.get(i); // get the ith entry of minutiae1
-			for (int j = 0; j < minutiae2.size(); ++j) {
-				int[] m2 = minutiae2.get(j); // get the jth the entry of minutiae2
-				// using the euclidean distance formula :
-				double distance = Math.sqrt((Math.pow(m1[0] - m2[0], 2)) + (Math.pow(m1[1] - m2[1], 2)));
-
-				// check if the conditions for a matching minuitia are fulfilled
-				if (distance <= maxDistance && (Math.abs(m1[2] - m2[2])) <= maxOrientation) {
-					matchingMinutiaeCount++; // found a match, add 1 to the count
-					break; // stop comparing
-				}
+			if (grid.hasMatch(m1[0], m1[1], m1[2], maxDistance, maxOrientation)) {
+				matchingMinutiaeCount++; // found a match, add 1 to the count
 			}
 		}
 		return matchingMinutiaeCount;
 
 	}
 
+	/**
+	 * Applies a transformation (rotation and translation) to every minutia of a
+	 * set, giving the same minutiae as
+	 * {@link #applyTransformation(List, int, int, int, int, int)}.
+	 * <p>
+	 * The cosine and sine of the rotation are read once for the whole set, and
+	 * the minutiae are written in a set given by the caller so that it can be
+	 * reused between transformations.
+	 *
+	 * @param minutiae       the set of minutiae.
+	 * @param centerRow      the row around which the points are rotated.
+	 * @param centerCol      the column around which the points are rotated.
+	 * @param rowTranslation the vertical translation.
+	 * @param colTranslation the horizontal translation.
+	 * @param rotation       the rotation in degrees.
+	 * @param result         the set receiving the transformed minutiae, its
+	 *                       capacity must be at least the size of
+	 *                       <code>minutiae</code>.
+	 */
+	public static void applyTransformation(Minutiae minutiae, int centerRow, int centerCol, int rowTranslation,
+			int colTranslation, int rotation, Minutiae result) {
+		assert (minutiae != null);
+		assert (result != null && result.capacity() >= minutiae.size());
+		// same formulas as applyRotation and applyTranslation
+		double cos = Trigonometry.cos(rotation);
+		double sin = Trigonometry.sin(rotation);
+		for (int i = 0; i < minutiae.size(); ++i) {
+			int x = minutiae.cols[i] - centerCol;
+			int y = centerRow - minutiae.rows[i];
+			double newX = x * cos - y * sin;
+			double newY = x * sin + y * cos;
+			result.rows[i] = (int) (Math.round(centerRow - newY)) - rowTranslation;
+			result.cols[i] = (int) (Math.round(newX + centerCol)) - colTranslation;
+			result.orientations[i] = (minutiae.orientations[i] + rotation) % 360;
+		}
+		result.setSize(minutiae.size());
+	}
+
+	/**
+	 * Counts the number of minutiae of <code>minutiae1</code> overlapping a
+	 * minutia of the grid, as described in
+	 * {@link #matchingMinutiaeCount(List, List, int, int, int)}.
+	 */
+	private static int matchingMinutiaeCount(Minutiae minutiae1, MinutiaeGrid grid, int maxDistance,
+			int maxOrientation, int threshold) {
+		int matchingMinutiaeCount = 0;
+		int size = minutiae1.size();
+		for (int i = 0; i < size; ++i) {
+			if (matchingMinutiaeCount >= threshold || matchingMinutiaeCount + size - i < threshold) {
+				break;
+			}
+			if (grid.hasMatch(minutiae1.rows[i], minutiae1.cols[i], minutiae1.orientations[i], maxDistance,
+					maxOrientation)) {
+				matchingMinutiaeCount++;
+			}
+		}
+		return matchingMinutiaeCount;
+	}
+
 	/**
 	 * Compares the minutiae from two fingerprints.
 	 *
@@ -656,28 +1123,185 @@ public class Fingerprint {
 	 * @param minutiae2 the list of minutiae of the second fingerprint.
 	 * @return Returns <code>true</code> if they match and <code>false</code>
 	 *         otherwise.
+	 * @see #match(Minutiae, Minutiae)
 	 */
 	public static boolean match(List<int[]> minutiae1, List<int[]> minutiae2) {
+		assert (minutiae1 != null && minutiae2 != null);
+		return match(Minutiae.fromList(minutiae1), Minutiae.fromList(minutiae2));
+	}
+
+	/**
+	 * Compares the minutiae from two fingerprints.
+	 * <p>
+	 * The candidate transformations are the same as in
+	 * {@link #match(List, List)}, but each of them is written in a single scratch
+	 * set of minutiae and a single grid, so that no memory is allocated per
+	 * candidate.
+	 *
+	 * @param minutiae1 the minutiae of the first fingerprint.
+	 * @param minutiae2 the minutiae of the second fingerprint.
+	 * @return Returns <code>true</code> if they match and <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean match(Minutiae minutiae1, Minutiae minutiae2) {
+		assert (minutiae1 != null && minutiae2 != null);
+		FingerprintListener current = listener;
+		long start = current == null ? 0 : System.nanoTime();
+		Minutiae newMinutiae2 = new Minutiae(minutiae2.size());
+		MinutiaeGrid grid = new MinutiaeGrid();
+		int transformations = 0;
+
 		// we compare each minutia m1 of minutiae1 to every minuitia m2 of minutiae2
 		for (int i = 0; i < minutiae1.size(); ++i) {
-			int[] m1 = minutiae1.get(i); // ith entry of minutiae1
+			int row1 = minutiae1.rows[i];
+			int col1 = minutiae1.cols[i];
 			for (int j = 0; j < minutiae2.size(); ++j) {
-				int[] m2 = minutiae2.get(j); // jth entry of minutiae2
+				int rotation = Math.abs(minutiae2.orientations[j] - minutiae1.orientations[i]);
+				for (int r = (rotation - MATCH_ANGLE_OFFSET); r <= (rotation + MATCH_ANGLE_OFFSET); ++r) {
+					// we apply a transformation to the second set of minutiae
+					applyTransformation(minutiae2, row1, col1, minutiae2.rows[j] - row1, minutiae2.cols[j] - col1, r,
+							newMinutiae2);
+					grid.build(newMinutiae2.size(), newMinutiae2.rows, newMinutiae2.cols, newMinutiae2.orientations,
+							DISTANCE_THRESHOLD);
+					++transformations;
+					if (matchingMinutiaeCount(minutiae1, grid, DISTANCE_THRESHOLD, ORIENTATION_THRESHOLD,
+							FOUND_THRESHOLD) >= FOUND_THRESHOLD) { // if there are enough matching minutiae
+						return matched(current, minutiae1, minutiae2, transformations, true, start);
+					}
+				}
+			}
+		}
+
+		// there are not enough matching minuitae between the two sets
+		return matched(current, minutiae1, minutiae2, transformations, false, start);
+	}
+
+	/**
+	 * Reports a comparison to the listener, if any.
+	 *
+	 * @return <code>matches</code>.
+	 */
+	private static boolean matched(FingerprintListener listener, Minutiae minutiae1, Minutiae minutiae2,
+			int transformations, boolean matches, long start) {
+		if (listener != null) {
+			listener.matched(minutiae1.size(), minutiae2.size(), transformations, matches, System.nanoTime() - start);
+		}
+		return matches;
+	}
 
-				int rotation = Math.abs(m2[2] - m1[2]);
+	/**
+	 * Reports a score to the listener, if any.
+	 *
+	 * @return <code>score</code>.
+	 */
+	static MatchScore scored(FingerprintListener listener, Minutiae minutiae1, Minutiae minutiae2, MatchScore score,
+			long start) {
+		matched(listener, minutiae1, minutiae2, score.candidates(), score.matches(), start);
+		return score;
+	}
+
+	/**
+	 * Scores the match of two fingerprints.
+	 *
+	 * @param minutiae1 the list of minutiae of the first fingerprint.
+	 * @param minutiae2 the list of minutiae of the second fingerprint.
+	 * @param policy    when to stop evaluating the candidates.
+	 * @return the best count found, its transformation and the number of
+	 *         candidates evaluated.
+	 * @see #score(Minutiae, Minutiae, MatchPolicy)
+	 */
+	public static MatchScore score(List<int[]> minutiae1, List<int[]> minutiae2, MatchPolicy policy) {
+		assert (minutiae1 != null && minutiae2 != null);
+		return score(Minutiae.fromList(minutiae1), Minutiae.fromList(minutiae2), policy);
+	}
+
+	/**
+	 * Scores the match of two fingerprints.
+	 * <p>
+	 * The candidate transformations are the ones of
+	 * {@link #match(Minutiae, Minutiae)}, evaluated in the same order. With
+	 * {@link MatchPolicy#FIRST_MATCH}, the result {@link MatchScore#matches()} if
+	 * and only if {@link #match(Minutiae, Minutiae)} returns <code>true</code>.
+	 * The count of a candidate is only computed exactly if it can beat the best
+	 * count so far, so the cost of {@link MatchPolicy#BEST} stays close to the
+	 * one of a failed match.
+	 *
+	 * @param minutiae1 the minutiae of the first fingerprint.
+	 * @param minutiae2 the minutiae of the second fingerprint.
+	 * @param policy    when to stop evaluating the candidates.
+	 * @return the best count found, its transformation and the number of
+	 *         candidates evaluated.
+	 */
+	public static MatchScore score(Minutiae minutiae1, Minutiae minutiae2, MatchPolicy policy) {
+		assert (minutiae1 != null && minutiae2 != null && policy != null);
+		FingerprintListener current = listener;
+		long start = current == null ? 0 : System.nanoTime();
+		Minutiae newMinutiae2 = new Minutiae(minutiae2.size());
+		MinutiaeGrid grid = new MinutiaeGrid();
+
+		int bestCount = 0;
+		int bestRow = 0;
+		int bestCol = 0;
+		int bestRowTranslation = 0;
+		int bestColTranslation = 0;
+		int bestRotation = 0;
+		int candidates = 0;
+		for (int i = 0; i < minutiae1.size(); ++i) {
+			int row1 = minutiae1.rows[i];
+			int col1 = minutiae1.cols[i];
+			for (int j = 0; j < minutiae2.size(); ++j) {
+				int rotation = Math.abs(minutiae2.orientations[j] - minutiae1.orientations[i]);
 				for (int r = (rotation - MATCH_ANGLE_OFFSET); r <= (rotation + MATCH_ANGLE_OFFSET); ++r) {
-					// we apply a transformation to the second list of minutiae
-					List<int[]> newMinutiae2 = applyTransformation(minutiae2, m1[0], m1[1], m2[0] - m1[0],
-							m2[1] - m1[1], r);
-					if (matchingMinutiaeCount(minutiae1, newMinutiae2, DISTANCE_THRESHOLD,
-							ORIENTATION_THRESHOLD) >= FOUND_THRESHOLD) { // if there are enough matching minutiae
-						return true;
+					int rowTranslation = minutiae2.rows[j] - row1;
+					int colTranslation = minutiae2.cols[j] - col1;
+					applyTransformation(minutiae2, row1, col1, rowTranslation, colTranslation, r, newMinutiae2);
+					grid.build(newMinutiae2.size(), newMinutiae2.rows, newMinutiae2.cols, newMinutiae2.orientations,
+							DISTANCE_THRESHOLD);
+					++candidates;
+					int count = matchingMinutiaeCountAbove(minutiae1, grid, DISTANCE_THRESHOLD, ORIENTATION_THRESHOLD,
+							bestCount);
+					if (count > bestCount) {
+						bestCount = count;
+						bestRow = row1;
+						bestCol = col1;
+						bestRowTranslation = rowTranslation;
+						bestColTranslation = colTranslation;
+						bestRotation = r;
+						if (policy == MatchPolicy.FIRST_MATCH && bestCount >= FOUND_THRESHOLD) {
+							return scored(current, minutiae1, minutiae2, new MatchScore(bestCount, bestRow, bestCol,
+									bestRowTranslation, bestColTranslation, bestRotation, candidates), start);
+						}
 					}
 				}
 			}
 		}
+		return scored(current, minutiae1, minutiae2, new MatchScore(bestCount, bestRow, bestCol, bestRowTranslation,
+				bestColTranslation, bestRotation, candidates), start);
+	}
 
-		return false; // there are not enough matching minuitae between the two lists
+	/**
+	 * Counts the number of minutiae of <code>minutiae1</code> overlapping a
+	 * minutia of the grid, stopping as soon as the count cannot exceed
+	 * <code>floor</code>.
+	 *
+	 * @return the number of overlapping minutiae if it is above
+	 *         <code>floor</code>, otherwise a value that is at most
+	 *         <code>floor</code>.
+	 */
+	static int matchingMinutiaeCountAbove(Minutiae minutiae1, MinutiaeGrid grid, int maxDistance,
+			int maxOrientation, int floor) {
+		int matchingMinutiaeCount = 0;
+		int size = minutiae1.size();
+		for (int i = 0; i < size; ++i) {
+			if (matchingMinutiaeCount + size - i <= floor) {
+				break;
+			}
+			if (grid.hasMatch(minutiae1.rows[i], minutiae1.cols[i], minutiae1.orientations[i], maxDistance,
+					maxOrientation)) {
+				matchingMinutiaeCount++;
+			}
+		}
+		return matchingMinutiaeCount;
 	}
 
 }
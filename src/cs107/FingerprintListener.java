@@ -0,0 +1,57 @@
+package cs107;
+
+/**
+ * Receives the duration and the counters of the calls to the stages of
+ * {@link Fingerprint}, once registered with
+ * {@link Fingerprint#setListener(FingerprintListener)}.
+ * <p>
+ * The methods are called on the thread that ran the stage, after it finished,
+ * so an implementation must be thread-safe and return quickly. Every method
+ * does nothing by default. Without a listener, a stage reads the registered
+ * listener once and skips the clock and the listener call; the counters it
+ * keeps anyway are increments of local variables.
+ */
+public interface FingerprintListener {
+
+	/**
+	 * Called after {@link Fingerprint#thin(BinaryImage)} or
+	 * {@link Fingerprint#thin(BinaryImage, java.util.concurrent.Executor)}.
+	 *
+	 * @param height     the number of rows of the image.
+	 * @param width      the number of columns of the image.
+	 * @param iterations the number of iterations of the thinning (a step 0
+	 *                   followed by a step 1) that removed at least one pixel,
+	 *                   the same whichever variant of <code>thin</code> is
+	 *                   called.
+	 * @param nanos      the duration of the call, in nanoseconds.
+	 */
+	default void thinned(int height, int width, int iterations, long nanos) {
+	}
+
+	/**
+	 * Called after {@link Fingerprint#extract(BinaryImage)} or
+	 * {@link Fingerprint#extract(BinaryImage, java.util.concurrent.Executor)}.
+	 *
+	 * @param candidates the number of black pixels of the skeleton examined.
+	 * @param minutiae   the number of minutiae found among them.
+	 * @param nanos      the duration of the call, in nanoseconds.
+	 */
+	default void extracted(int candidates, int minutiae, long nanos) {
+	}
+
+	/**
+	 * Called after a comparison of two fingerprints by
+	 * {@link Fingerprint#match(Minutiae, Minutiae)},
+	 * {@link Fingerprint#score(Minutiae, Minutiae, MatchPolicy)} or
+	 * {@link HoughMatcher#score(Minutiae, Minutiae, int, MatchPolicy)}.
+	 *
+	 * @param minutiae1       the number of minutiae of the first fingerprint.
+	 * @param minutiae2       the number of minutiae of the second fingerprint.
+	 * @param transformations the number of transformations tried before
+	 *                        deciding.
+	 * @param matches         whether the fingerprints match.
+	 * @param nanos           the duration of the call, in nanoseconds.
+	 */
+	default void matched(int minutiae1, int minutiae2, int transformations, boolean matches, long nanos) {
+	}
+}
@@ -0,0 +1,318 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * In-memory set of enrolled fingerprints, searched for the ones that best
+ * match a probe (1:N identification).
+ * <p>
+ * Each template is kept as a trimmed {@link Minutiae} set, so the gallery only
+ * holds three arrays of integers per fingerprint. A search scores the probe
+ * against every template on an {@link Executor} and keeps the best
+ * candidates of each task, so it only allocates a few objects per template.
+ * <p>
+ * The {@link PrefilterIndex} signatures of the templates are only computed by
+ * the first search that uses them.
+ * <p>
+ * A gallery is not thread-safe: templates must not be added while a search is
+ * running.
+ */
+public final class Gallery {
+
+	/**
+	 * The minimum number of templates given to a task by
+	 * {@link #search(int, int, Executor, Supplier, IntFunction)}.
+	 */
+	private static final int MIN_CHUNK_TEMPLATES = 16;
+
+	/**
+	 * Best candidates first, and the first enrolled for equal counts so that the
+	 * result does not depend on the order in which the tasks finish.
+	 */
+	private static final Comparator<Candidate> RANKING = Comparator
+			.comparingInt((Candidate candidate) -> -candidate.score().count()).thenComparingInt(Candidate::index);
+
+	private final BiFunction<Minutiae, Minutiae, MatchScore> scorer;
+	private final List<String> ids = new ArrayList<String>();
+	private final List<Minutiae> templates = new ArrayList<Minutiae>();
+	// the signatures of the first prefilter.size() templates
+	private final PrefilterIndex prefilter = new PrefilterIndex();
+
+	/**
+	 * Creates an empty gallery scored with
+	 * {@link Fingerprint#score(Minutiae, Minutiae, MatchPolicy)}, which gives the
+	 * exact best count.
+	 */
+	public Gallery() {
+		this((probe, template) -> Fingerprint.score(probe, template, MatchPolicy.BEST));
+	}
+
+	/**
+	 * Creates an empty gallery scored with
+	 * {@link HoughMatcher#score(Minutiae, Minutiae, MatchPolicy)}, which only
+	 * looks for the best count among the most voted transformations. It is much
+	 * faster than the exact scoring but may give lower counts, so the candidates
+	 * can differ from the ones of {@link #Gallery()}.
+	 *
+	 * @return the gallery.
+	 */
+	public static Gallery fast() {
+		return new Gallery((probe, template) -> HoughMatcher.score(probe, template, MatchPolicy.BEST));
+	}
+
+	/**
+	 * Creates an empty gallery.
+	 *
+	 * @param scorer the function scoring a probe (first argument) against a
+	 *               template (second argument), for instance
+	 *               <code>(p, t) -&gt; HoughMatcher.score(p, t, 8, MatchPolicy.BEST)</code>
+	 *               to check more bins than {@link #fast()}. It is called
+	 *               concurrently.
+	 */
+	public Gallery(BiFunction<Minutiae, Minutiae, MatchScore> scorer) {
+		assert (scorer != null);
+		this.scorer = scorer;
+	}
+
+	/**
+	 * Enrolls a fingerprint.
+	 *
+	 * @param id       the identifier of the fingerprint, returned with the
+	 *                 candidates.
+	 * @param minutiae the minutiae of the fingerprint, copied.
+	 * @return the index of the template in the gallery.
+	 */
+	public int add(String id, Minutiae minutiae) {
+		assert (minutiae != null);
+		ids.add(id);
+		templates.add(minutiae.copy());
+		return templates.size() - 1;
+	}
+
+	/**
+	 * Enrolls a fingerprint.
+	 *
+	 * @param id       the identifier of the fingerprint, returned with the
+	 *                 candidates.
+	 * @param minutiae the minutiae of the fingerprint, as returned by
+	 *                 {@link Fingerprint#extract(boolean[][])}.
+	 * @return the index of the template in the gallery.
+	 */
+	public int add(String id, List<int[]> minutiae) {
+		assert (minutiae != null);
+		return add(id, Minutiae.fromList(minutiae));
+	}
+
+	/**
+	 * @return the number of templates.
+	 */
+	public int size() {
+		return templates.size();
+	}
+
+	/**
+	 * @param index the index of the template.
+	 * @return the identifier of the template.
+	 */
+	public String id(int index) {
+		return ids.get(index);
+	}
+
+	/**
+	 * @param index the index of the template.
+	 * @return the minutiae of the template, which must not be modified.
+	 */
+	public Minutiae template(int index) {
+		return templates.get(index);
+	}
+
+	/**
+	 * Searches the templates that best match a probe, on the common pool.
+	 *
+	 * @param probe the minutiae of the probe.
+	 * @param k     the maximum number of candidates.
+	 * @return the candidates, as described in
+	 *         {@link #identify(Minutiae, int, Executor)}.
+	 */
+	public List<Candidate> identify(Minutiae probe, int k) {
+		return identify(probe, k, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Searches the templates that best match a probe, scoring all of them.
+	 *
+	 * @param probe    the minutiae of the probe.
+	 * @param k        the maximum number of candidates.
+	 * @param executor the executor running the chunks.
+	 * @return the candidates, as described in
+	 *         {@link #identify(Minutiae, int, double, Executor)}.
+	 */
+	public List<Candidate> identify(Minutiae probe, int k, Executor executor) {
+		return identify(probe, k, 0, executor);
+	}
+
+	/**
+	 * Searches the templates that best match a probe.
+	 * <p>
+	 * The templates are scored in parallel, by chunks of consecutive indices. The
+	 * templates whose {@link PrefilterIndex} signature is less similar to the one
+	 * of the probe than <code>minSimilarity</code> are skipped without being
+	 * scored; {@link PrefilterIndex#thresholdForRecall(double[], double)} chooses
+	 * it from the similarities of known matches.
+	 *
+	 * @param probe         the minutiae of the probe.
+	 * @param k             the maximum number of candidates.
+	 * @param minSimilarity the minimum similarity of the signatures for a
+	 *                      template to be scored, <code>0</code> to score all of
+	 *                      them.
+	 * @param executor      the executor running the chunks, for instance
+	 *                      {@link ForkJoinPool#commonPool()}.
+	 * @return the <code>k</code> scored templates with the highest counts, or all
+	 *         of them if there are fewer, the highest count first and the first
+	 *         enrolled first for equal counts.
+	 */
+	public List<Candidate> identify(Minutiae probe, int k, double minSimilarity, Executor executor) {
+		assert (probe != null && executor != null);
+		assert (k >= 0);
+		float[] signature = minSimilarity > 0 ? PrefilterIndex.signature(probe) : null;
+		PrefilterIndex prefilter = minSimilarity > 0 ? prefilter() : null;
+		return search(templates.size(), k, executor, () -> index -> {
+			if (signature != null && prefilter.similarity(signature, index) < minSimilarity) {
+				return null;
+			}
+			return scorer.apply(probe, templates.get(index));
+		}, ids::get);
+	}
+
+	/**
+	 * Computes the signatures of the templates added since the last search using
+	 * the prefilter.
+	 *
+	 * @return the index of the signatures of all the templates.
+	 */
+	private synchronized PrefilterIndex prefilter() {
+		while (prefilter.size() < templates.size()) {
+			prefilter.add(templates.get(prefilter.size()));
+		}
+		return prefilter;
+	}
+
+	/**
+	 * Scores templates in parallel and keeps the best ones.
+	 * <p>
+	 * The templates are split in chunks of consecutive indices, each handled by a
+	 * task of the executor which keeps its <code>k</code> best candidates.
+	 *
+	 * @param size     the number of templates.
+	 * @param k        the maximum number of candidates.
+	 * @param executor the executor running the chunks.
+	 * @param scorers  gives to each task the function scoring a template from its
+	 *                 index, or returning <code>null</code> to skip it. A task
+	 *                 only calls its own function, which can thus reuse buffers.
+	 * @param ids      gives the identifier of a template from its index, only
+	 *                 called for the returned candidates.
+	 * @return the candidates, as described in
+	 *         {@link #identify(Minutiae, int, double, Executor)}.
+	 */
+	static List<Candidate> search(int size, int k, Executor executor, Supplier<IntFunction<MatchScore>> scorers,
+			IntFunction<String> ids) {
+		if (k == 0 || size == 0) {
+			return new ArrayList<Candidate>();
+		}
+		int chunks = Tasks.count(size, MIN_CHUNK_TEMPLATES);
+
+		List<CompletableFuture<PriorityQueue<Candidate>>> futures = new ArrayList<CompletableFuture<PriorityQueue<Candidate>>>();
+		for (int chunk = 0; chunk < chunks; ++chunk) {
+			int from = (int) ((long) size * chunk / chunks);
+			int to = (int) ((long) size * (chunk + 1) / chunks);
+			futures.add(CompletableFuture.supplyAsync(() -> {
+				IntFunction<MatchScore> scorer = scorers.get();
+				// the worst of the best candidates is at the head of the queue
+				PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(k + 1, RANKING.reversed());
+				for (int index = from; index < to; ++index) {
+					MatchScore score = scorer.apply(index);
+					if (score != null) {
+						offer(best, new Candidate(index, null, score), k);
+					}
+				}
+				return best;
+			}, executor));
+		}
+
+		PriorityQueue<Candidate> best = new PriorityQueue<Candidate>(k + 1, RANKING.reversed());
+		for (CompletableFuture<PriorityQueue<Candidate>> future : futures) {
+			for (Candidate candidate : Tasks.join(future)) {
+				offer(best, candidate, k);
+			}
+		}
+		List<Candidate> candidates = new ArrayList<Candidate>(best.size());
+		for (Candidate candidate : best) {
+			candidates.add(new Candidate(candidate.index(), ids.apply(candidate.index()), candidate.score()));
+		}
+		candidates.sort(RANKING);
+		return candidates;
+	}
+
+	/**
+	 * Adds a candidate to a queue of at most <code>k</code> best candidates.
+	 */
+	private static void offer(PriorityQueue<Candidate> best, Candidate candidate, int k) {
+		if (best.size() < k) {
+			best.add(candidate);
+		} else if (RANKING.compare(candidate, best.peek()) < 0) {
+			best.poll();
+			best.add(candidate);
+		}
+	}
+
+	/**
+	 * A template returned by a search, with its score against the probe.
+	 */
+	public static final class Candidate {
+
+		private final int index;
+		private final String id;
+		private final MatchScore score;
+
+		Candidate(int index, String id, MatchScore score) {
+			this.index = index;
+			this.id = id;
+			this.score = score;
+		}
+
+		/**
+		 * @return the index of the template in the gallery.
+		 */
+		public int index() {
+			return index;
+		}
+
+		/**
+		 * @return the identifier of the template.
+		 */
+		public String id() {
+			return id;
+		}
+
+		/**
+		 * @return the score of the probe against the template.
+		 */
+		public MatchScore score() {
+			return score;
+		}
+
+		@Override
+		public String toString() {
+			return id + ": " + score;
+		}
+	}
+}
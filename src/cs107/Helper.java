@@ -4,8 +4,20 @@ import java.awt.Graphics;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 import javax.imageio.ImageIO;
 import javax.swing.JFrame;
@@ -74,6 +86,41 @@ public final class Helper {
     return image == null ? null : toBinary(image);
   }
 
+  /**
+   * Reads specified image from the resource folder as a packed binary image.
+   *
+   * @param name Name of the image to read, or path relative to the resource
+   *             folder.
+   * @return HxW packed binary image, or <code>null</code> on failure
+   * @see #toBinaryImage
+   */
+  public static BinaryImage readBinaryImage(final String name) {
+    try {
+      final BufferedImage image = ImageIO.read(new File(name));
+      return image == null ? null : toBinaryImage(image);
+    } catch (final IOException e) {
+      System.out.println(e + " Filename: " + name);
+      return null;
+    }
+  }
+
+  /**
+   * Decodes an image file already read in memory as a packed binary image.
+   *
+   * @param content The bytes of the image file, for instance of a PNG
+   * @return HxW packed binary image, or <code>null</code> on failure
+   * @see #toBinaryImage
+   */
+  public static BinaryImage decodeBinaryImage(final byte[] content) {
+    try {
+      final BufferedImage image = ImageIO.read(new ByteArrayInputStream(content));
+      return image == null ? null : toBinaryImage(image);
+    } catch (final IOException e) {
+      System.out.println(e);
+      return null;
+    }
+  }
+
   /**
    * Writes specified binary image to disk.
    *
@@ -87,6 +134,19 @@ public final class Helper {
     return writeARGB(path, fromBinary(array));
   }
 
+  /**
+   * Writes specified packed binary image to disk.
+   *
+   * @param path  Output file path
+   * @param image HxW packed binary image
+   * @return {@code true} if write operation was successful, {@code false}
+   *         otherwise
+   * @see #readBinaryImage(String)
+   */
+  public static boolean writeBinary(final String path, final BinaryImage image) {
+    return writeARGB(path, fromBinary(image));
+  }
+
   /**
    * Writes specified image to disk.
    *
@@ -114,6 +174,158 @@ public final class Helper {
     }
   }
 
+  /**
+   * Reads the template of a fingerprint.
+   *
+   * @param path Template file path
+   * @return the minutiae of the template, or <code>null</code> on failure
+   * @see TemplateFormat
+   */
+  public static Minutiae readTemplate(final String path) {
+    try {
+      return TemplateFormat.decode(Files.readAllBytes(Paths.get(path)));
+    } catch (final IOException | IllegalArgumentException e) {
+      System.out.println(e + " Filename: " + path);
+      return null;
+    }
+  }
+
+  /**
+   * Writes the template of a fingerprint to disk.
+   *
+   * @param path     Template file path
+   * @param minutiae the minutiae of the fingerprint
+   * @return {@code true} if write operation was successful, {@code false}
+   *         otherwise
+   * @see TemplateFormat
+   */
+  public static boolean writeTemplate(final String path, final Minutiae minutiae) {
+    try {
+      Files.write(Paths.get(path), TemplateFormat.encode(minutiae));
+      return true;
+    } catch (final IOException | IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Converts specified BufferedImage into a packed binary image, with the same
+   * result as <code>toBinaryImage</code> applied to its ARGB pixels.
+   * <p>
+   * The common layouts of decoded PNG files (packed 1, 2 or 4 bits and 8 bits
+   * per pixel with a palette or in gray, 8 bits RGB and RGBA, and packed integer
+   * RGB) are read directly in the data buffer of the raster, without going
+   * through <code>getRGB</code> for every pixel. Palette and gray values go
+   * through the color model once per possible value, so they are converted
+   * exactly as <code>getRGB</code> does. Other layouts fall back to
+   * <code>getRGB</code>, still without an intermediate array.
+   *
+   * @param image Input image
+   * @return HxW packed binary image
+   */
+  static BinaryImage toBinaryImage(final BufferedImage image) {
+    final int width = image.getWidth();
+    final int height = image.getHeight();
+    final BinaryImage result = new BinaryImage(height, width);
+    final long[] words = result.words();
+    final int wordsPerRow = result.wordsPerRow();
+    final WritableRaster raster = image.getRaster();
+    final SampleModel sampleModel = raster.getSampleModel();
+    final DataBuffer dataBuffer = raster.getDataBuffer();
+    final ColorModel colorModel = image.getColorModel();
+    final boolean direct = raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0
+        && dataBuffer.getNumBanks() == 1;
+
+    if (direct && dataBuffer instanceof DataBufferByte && sampleModel instanceof MultiPixelPackedSampleModel) {
+      // 1, 2, 4 or 8 bits per pixel, most significant bits first
+      final MultiPixelPackedSampleModel packed = (MultiPixelPackedSampleModel) sampleModel;
+      final byte[] data = ((DataBufferByte) dataBuffer).getData();
+      final int bits = packed.getPixelBitStride();
+      final boolean[] black = blackValues(colorModel, 1 << bits);
+      final int mask = (1 << bits) - 1;
+      for (int row = 0; row < height; ++row) {
+        final int rowStart = dataBuffer.getOffset() + row * packed.getScanlineStride();
+        final int base = row * wordsPerRow;
+        for (int col = 0; col < width; ++col) {
+          final int bit = packed.getDataBitOffset() + col * bits;
+          final int value = (data[rowStart + (bit >>> 3)] >> (8 - bits - (bit & 7))) & mask;
+          if (black[value]) {
+            words[base + (col >>> 6)] |= 1L << col;
+          }
+        }
+      }
+    } else if (direct && dataBuffer instanceof DataBufferByte && sampleModel instanceof PixelInterleavedSampleModel
+        && (sampleModel.getNumBands() == 1 || image.getType() == BufferedImage.TYPE_3BYTE_BGR
+            || image.getType() == BufferedImage.TYPE_4BYTE_ABGR)) {
+      final PixelInterleavedSampleModel interleaved = (PixelInterleavedSampleModel) sampleModel;
+      final byte[] data = ((DataBufferByte) dataBuffer).getData();
+      final int[] bandOffsets = interleaved.getBandOffsets();
+      final int pixelStride = interleaved.getPixelStride();
+      // the gray or palette values go through the color model, while the
+      // components of sRGB images are the ones returned by getRGB
+      final boolean[] black = sampleModel.getNumBands() == 1 ? blackValues(colorModel, 256) : null;
+      for (int row = 0; row < height; ++row) {
+        int index = dataBuffer.getOffset() + row * interleaved.getScanlineStride();
+        final int base = row * wordsPerRow;
+        for (int col = 0; col < width; ++col, index += pixelStride) {
+          final boolean isBlack;
+          if (black != null) {
+            isBlack = black[data[index + bandOffsets[0]] & 0xFF];
+          } else {
+            final int red = data[index + bandOffsets[0]] & 0xFF;
+            final int green = data[index + bandOffsets[1]] & 0xFF;
+            final int blue = data[index + bandOffsets[2]] & 0xFF;
+            isBlack = pixelLuminance((red << 16) | (green << 8) | blue) < 128;
+          }
+          if (isBlack) {
+            words[base + (col >>> 6)] |= 1L << col;
+          }
+        }
+      }
+    } else if (direct && dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel
+        && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+      final SinglePixelPackedSampleModel singlePixel = (SinglePixelPackedSampleModel) sampleModel;
+      final int[] data = ((DataBufferInt) dataBuffer).getData();
+      for (int row = 0; row < height; ++row) {
+        final int rowStart = dataBuffer.getOffset() + row * singlePixel.getScanlineStride();
+        final int base = row * wordsPerRow;
+        for (int col = 0; col < width; ++col) {
+          if (pixelLuminance(data[rowStart + col] & 0xffffff) < 128) {
+            words[base + (col >>> 6)] |= 1L << col;
+          }
+        }
+      }
+    } else {
+      for (int row = 0; row < height; ++row) {
+        final int base = row * wordsPerRow;
+        for (int col = 0; col < width; ++col) {
+          if (pixelLuminance(image.getRGB(col, row) & 0xffffff) < 128) {
+            words[base + (col >>> 6)] |= 1L << col;
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Thresholds every value of single-sample pixels through a color model.
+   *
+   * @param colorModel the color model of the image
+   * @param count      the number of possible values of a pixel, at most 256
+   * @return for each value, <code>true</code> if the pixel is black
+   */
+  private static boolean[] blackValues(final ColorModel colorModel, final int count) {
+    final boolean[] black = new boolean[count];
+    final byte[] pixel = new byte[1];
+    for (int value = 0; value < count; ++value) {
+      pixel[0] = (byte) value;
+      // the same conversion as BufferedImage.getRGB
+      black[value] = pixelLuminance(colorModel.getRGB(pixel) & 0xffffff) < 128;
+    }
+    return black;
+  }
+
   /**
    * Convert specified BufferedImage into an array
    *
@@ -254,6 +466,25 @@ public final class Helper {
     return result;
   }
 
+  /**
+   * Converts an ARGB image to a packed binary image, with the same threshold as
+   * {@link #toBinary}.
+   *
+   * @param image array containing each pixel's ARGB value as an int.
+   * @return Packed image where dark pixels are set.
+   */
+  public static BinaryImage toBinaryImage(final int[][] image) {
+    final BinaryImage result = new BinaryImage(image.length, image[0].length);
+    for (int i = 0; i < result.height(); i++) {
+      for (int j = 0; j < result.width(); j++) {
+        if (pixelLuminance(image[i][j]) < 128) {
+          result.set(i, j, true);
+        }
+      }
+    }
+    return result;
+  }
+
   /**
    * Converts a binary image to an ARBG image.
    *
@@ -271,6 +502,23 @@ public final class Helper {
     return result;
   }
 
+  /**
+   * Converts a packed binary image to an ARBG image.
+   *
+   * @param image the packed binary image.
+   * @return Array containing each pixel's ARGB value as an int. Set pixels are
+   *         black while the others are white.
+   */
+  public static int[][] fromBinary(final BinaryImage image) {
+    final int[][] result = new int[image.height()][image.width()];
+    for (int i = 0; i < result.length; i++) {
+      for (int j = 0; j < result[i].length; j++) {
+        result[i][j] = image.get(i, j) ? 0xFF000000 : 0xFFFFFFFF;
+      }
+    }
+    return result;
+  }
+
   /**
    * Draws a line on an image.
    *
@@ -334,8 +582,8 @@ public final class Helper {
   public static void addCircle(final int[][] image, final int rowCenter, final int colCenter, final int radius,
       final int color) {
     for (int i = 0; i < 360; i++) {
-      final int row = rowCenter + (int) Math.round(radius * Math.sin(Math.toRadians(i)));
-      final int col = colCenter + (int) Math.round(radius * Math.cos(Math.toRadians(i)));
+      final int row = rowCenter + (int) Math.round(radius * Trigonometry.sin(i));
+      final int col = colCenter + (int) Math.round(radius * Trigonometry.cos(i));
       if (0 <= row && row < image.length && 0 <= col && col < image[row].length) {
         image[row][col] = color;
       }
@@ -0,0 +1,318 @@
+package cs107;
+
+/**
+ * Fast approximation of {@link Fingerprint#match(Minutiae, Minutiae)} based on
+ * a vote over the possible transformations.
+ * <p>
+ * Every pair of minutiae <code>(m1, m2)</code> defines the transformation
+ * tried by the exact matching: a rotation of <code>|m2.orientation -
+ * m1.orientation|</code> degrees followed by a translation. Pairs of minutiae
+ * that really correspond give almost the same transformation, so each pair
+ * votes for the bin of the accumulator containing its rotation and the image
+ * of the origin by its transformation. Only the transformations of the pairs
+ * in the bins with the most votes are then checked with the exact count of
+ * matching minutiae.
+ * <p>
+ * The checked transformations are candidates of the exact matching, so this
+ * mode never finds a match that the exact one would not find. It may miss
+ * some of them, when the best transformation is not in the most voted bins,
+ * so it is an approximation: on the bundled fingerprints, it agrees with
+ * {@link Fingerprint#match(Minutiae, Minutiae)} on all 80 comparisons of
+ * <code>1_1</code>, on 77 of the 80 of <code>3_2</code> and on only 46 of the
+ * 80 of <code>7_5</code>, whose 295 minutiae give many transformations with
+ * about as many votes. All the disagreements are matches of different fingers
+ * found by the exact matching.
+ * <p>
+ * The accumulator, the transformed minutiae and their grid are kept by each
+ * thread and reused by its next comparisons, so a comparison does not
+ * allocate them.
+ */
+public final class HoughMatcher {
+
+	/**
+	 * The number of most voted bins whose transformations are checked by default.
+	 */
+	public static final int DEFAULT_CANDIDATES = 4;
+
+	/**
+	 * The size of a bin along the rotation, in degrees. It covers the rotations
+	 * tried around each pair by the exact matching.
+	 */
+	private static final int ROTATION_BIN = 2 * Fingerprint.MATCH_ANGLE_OFFSET + 1;
+
+	/**
+	 * The size of a bin along the translation, in pixels.
+	 */
+	private static final int TRANSLATION_BIN = 2 * Fingerprint.DISTANCE_THRESHOLD;
+
+	/**
+	 * The number of pairs of each checked bin whose transformation is checked. A
+	 * bin may contain a few pairs that do not correspond, so checking only one of
+	 * them misses some matches.
+	 */
+	private static final int VOTERS_PER_BIN = 4;
+
+	private static final ThreadLocal<Workspace> WORKSPACES = ThreadLocal.withInitial(Workspace::new);
+
+	private HoughMatcher() {
+	}
+
+	/**
+	 * Compares the minutiae from two fingerprints, checking the
+	 * {@link #DEFAULT_CANDIDATES} most voted bins.
+	 *
+	 * @param minutiae1 the minutiae of the first fingerprint.
+	 * @param minutiae2 the minutiae of the second fingerprint.
+	 * @return Returns <code>true</code> if they match and <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean match(Minutiae minutiae1, Minutiae minutiae2) {
+		return match(minutiae1, minutiae2, DEFAULT_CANDIDATES);
+	}
+
+	/**
+	 * Compares the minutiae from two fingerprints.
+	 *
+	 * @param minutiae1  the minutiae of the first fingerprint.
+	 * @param minutiae2  the minutiae of the second fingerprint.
+	 * @param candidates the number of most voted bins to check.
+	 * @return Returns <code>true</code> if they match and <code>false</code>
+	 *         otherwise.
+	 */
+	public static boolean match(Minutiae minutiae1, Minutiae minutiae2, int candidates) {
+		assert (minutiae1 != null && minutiae2 != null);
+		// at most one match is counted per minutia of minutiae1
+		if (minutiae1.size() < Fingerprint.FOUND_THRESHOLD) {
+			return false;
+		}
+		return score(minutiae1, minutiae2, candidates, MatchPolicy.FIRST_MATCH).matches();
+	}
+
+	/**
+	 * Scores the match of two fingerprints, checking the
+	 * {@link #DEFAULT_CANDIDATES} most voted bins.
+	 *
+	 * @param minutiae1 the minutiae of the first fingerprint.
+	 * @param minutiae2 the minutiae of the second fingerprint.
+	 * @param policy    when to stop checking the transformations.
+	 * @return the best count among the checked transformations.
+	 * @see #score(Minutiae, Minutiae, int, MatchPolicy)
+	 */
+	public static MatchScore score(Minutiae minutiae1, Minutiae minutiae2, MatchPolicy policy) {
+		return score(minutiae1, minutiae2, DEFAULT_CANDIDATES, policy);
+	}
+
+	/**
+	 * Scores the match of two fingerprints.
+	 * <p>
+	 * Only the transformations of the most voted bins are checked, so the count is
+	 * a lower bound of the one of
+	 * {@link Fingerprint#score(Minutiae, Minutiae, MatchPolicy)}, equal to it
+	 * when the best transformation is in one of these bins.
+	 *
+	 * @param minutiae1  the minutiae of the first fingerprint.
+	 * @param minutiae2  the minutiae of the second fingerprint.
+	 * @param candidates the number of most voted bins to check.
+	 * @param policy     when to stop checking the transformations.
+	 * @return the best count among the checked transformations, its
+	 *         transformation and the number of transformations checked.
+	 */
+	public static MatchScore score(Minutiae minutiae1, Minutiae minutiae2, int candidates, MatchPolicy policy) {
+		assert (minutiae1 != null && minutiae2 != null && policy != null);
+		assert (candidates > 0);
+		FingerprintListener listener = Fingerprint.listener();
+		long start = listener == null ? 0 : System.nanoTime();
+		int n = minutiae1.size();
+		int m = minutiae2.size();
+		if (n == 0 || m == 0) {
+			return Fingerprint.scored(listener, minutiae1, minutiae2, new MatchScore(0, 0, 0, 0, 0, 0, 0), start);
+		}
+
+		Workspace workspace = WORKSPACES.get();
+		Accumulator accumulator = workspace.accumulator;
+		accumulator.reset(n * m);
+		for (int i = 0; i < n; ++i) {
+			int row1 = minutiae1.rows[i];
+			int col1 = minutiae1.cols[i];
+			for (int j = 0; j < m; ++j) {
+				int rotation = Math.abs(minutiae2.orientations[j] - minutiae1.orientations[i]);
+				double cos = Trigonometry.cos(rotation);
+				double sin = Trigonometry.sin(rotation);
+				// image of the origin by the transformation of the pair, with the formulas of
+				// Fingerprint.applyRotation and Fingerprint.applyTranslation
+				int x = -col1;
+				int y = row1;
+				double originRow = row1 - (x * sin + y * cos) - (minutiae2.rows[j] - row1);
+				double originCol = (x * cos - y * sin) + col1 - (minutiae2.cols[j] - col1);
+				long key = key(rotation / ROTATION_BIN, (int) Math.floor(originRow / TRANSLATION_BIN),
+						(int) Math.floor(originCol / TRANSLATION_BIN));
+				accumulator.vote(key, i * m + j);
+			}
+		}
+
+		// check the transformations of the last voters of the most voted bins, with the
+		// rotations tried by the exact matching
+		Minutiae newMinutiae2 = workspace.transformed(m);
+		MinutiaeGrid grid = workspace.grid;
+		int bestCount = 0;
+		int bestRow = 0;
+		int bestCol = 0;
+		int bestRowTranslation = 0;
+		int bestColTranslation = 0;
+		int bestRotation = 0;
+		int checkedTransformations = 0;
+		for (int slot : accumulator.best(candidates)) {
+			int pair = accumulator.lastVoter[slot];
+			for (int checked = 0; pair >= 0 && checked < VOTERS_PER_BIN; ++checked) {
+				int i = pair / m;
+				int j = pair % m;
+				int row1 = minutiae1.rows[i];
+				int col1 = minutiae1.cols[i];
+				int rowTranslation = minutiae2.rows[j] - row1;
+				int colTranslation = minutiae2.cols[j] - col1;
+				int rotation = Math.abs(minutiae2.orientations[j] - minutiae1.orientations[i]);
+				for (int r = rotation - Fingerprint.MATCH_ANGLE_OFFSET; r <= rotation
+						+ Fingerprint.MATCH_ANGLE_OFFSET; ++r) {
+					Fingerprint.applyTransformation(minutiae2, row1, col1, rowTranslation, colTranslation, r,
+							newMinutiae2);
+					grid.build(m, newMinutiae2.rows, newMinutiae2.cols, newMinutiae2.orientations,
+							Fingerprint.DISTANCE_THRESHOLD);
+					++checkedTransformations;
+					int count = Fingerprint.matchingMinutiaeCountAbove(minutiae1, grid, Fingerprint.DISTANCE_THRESHOLD,
+							Fingerprint.ORIENTATION_THRESHOLD, bestCount);
+					if (count > bestCount) {
+						bestCount = count;
+						bestRow = row1;
+						bestCol = col1;
+						bestRowTranslation = rowTranslation;
+						bestColTranslation = colTranslation;
+						bestRotation = r;
+						if (policy == MatchPolicy.FIRST_MATCH && bestCount >= Fingerprint.FOUND_THRESHOLD) {
+							return Fingerprint.scored(listener, minutiae1, minutiae2, new MatchScore(bestCount, bestRow,
+									bestCol, bestRowTranslation, bestColTranslation, bestRotation, checkedTransformations),
+									start);
+						}
+					}
+				}
+				pair = accumulator.previousVoter[pair];
+			}
+		}
+		return Fingerprint.scored(listener, minutiae1, minutiae2, new MatchScore(bestCount, bestRow, bestCol,
+				bestRowTranslation, bestColTranslation, bestRotation, checkedTransformations), start);
+	}
+
+	/**
+	 * Packs the coordinates of a bin in a single key.
+	 */
+	private static long key(int rotationBin, int rowBin, int colBin) {
+		return ((long) rotationBin << 42) | (((long) rowBin & 0x1FFFFFL) << 21) | ((long) colBin & 0x1FFFFFL);
+	}
+
+	/**
+	 * The buffers of the comparisons of a thread, grown when a comparison needs
+	 * more room.
+	 */
+	private static final class Workspace {
+		final Accumulator accumulator = new Accumulator();
+		final MinutiaeGrid grid = new MinutiaeGrid();
+		private Minutiae transformed = new Minutiae(0);
+
+		/**
+		 * @return a set of minutiae of capacity at least <code>capacity</code>.
+		 */
+		Minutiae transformed(int capacity) {
+			if (transformed.capacity() < capacity) {
+				transformed = new Minutiae(capacity);
+			}
+			return transformed;
+		}
+	}
+
+	/**
+	 * Hash table counting the votes of each bin, with open addressing.
+	 * <p>
+	 * Its arrays are reused by the next comparison: only the prefix of
+	 * <code>mask + 1</code> slots is used, and only the slots that received votes
+	 * are cleared.
+	 */
+	private static final class Accumulator {
+		private long[] keys = new long[0];
+		private int[] votes = new int[0];
+		private int[] lastVoter = new int[0];
+		// the voters of a bin are chained from the last one, previousVoter[voter]
+		// being the voter of the same bin before it, or -1
+		private int[] previousVoter = new int[0];
+		// the slots that received votes, in the order of their first vote
+		private int[] usedSlots = new int[0];
+		private int mask;
+		private int used;
+
+		/**
+		 * Empties the table, for at most <code>maxBins</code> voters.
+		 */
+		void reset(int maxBins) {
+			for (int k = 0; k < used; ++k) {
+				votes[usedSlots[k]] = 0;
+			}
+			used = 0;
+			// at most half full
+			int capacity = Integer.highestOneBit(Math.max(1, maxBins)) * 4;
+			if (keys.length < capacity) {
+				keys = new long[capacity];
+				votes = new int[capacity];
+				lastVoter = new int[capacity];
+			}
+			if (previousVoter.length < maxBins) {
+				previousVoter = new int[maxBins];
+				usedSlots = new int[maxBins];
+			}
+			mask = capacity - 1;
+		}
+
+		void vote(long key, int voter) {
+			int slot = (int) (mix(key) & mask);
+			while (votes[slot] != 0 && keys[slot] != key) {
+				slot = (slot + 1) & mask;
+			}
+			if (votes[slot] == 0) {
+				keys[slot] = key;
+				lastVoter[slot] = -1;
+				usedSlots[used++] = slot;
+			}
+			votes[slot]++;
+			previousVoter[voter] = lastVoter[slot];
+			lastVoter[slot] = voter;
+		}
+
+		/**
+		 * @return the slots of the bins with the most votes, the most voted first.
+		 */
+		int[] best(int count) {
+			count = Math.min(count, used);
+			int[] bestVotes = new int[count];
+			int[] bestSlots = new int[count];
+			int size = 0;
+			for (int slot = 0; slot <= mask; ++slot) {
+				int v = votes[slot];
+				if (v == 0 || (size == count && v <= bestVotes[size - 1])) {
+					continue;
+				}
+				// insertion in the sorted arrays, dropping the last one when full
+				int k = size < count ? size++ : size - 1;
+				while (k > 0 && bestVotes[k - 1] < v) {
+					bestVotes[k] = bestVotes[k - 1];
+					bestSlots[k] = bestSlots[k - 1];
+					--k;
+				}
+				bestVotes[k] = v;
+				bestSlots[k] = slot;
+			}
+			return bestSlots;
+		}
+
+		private static long mix(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return key ^ (key >>> 32);
+		}
+	}
+}
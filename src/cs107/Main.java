@@ -1,14 +1,39 @@
 package cs107;
 
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+import javax.imageio.ImageIO;
 
 /**
  * This class will not be graded. You can use it to test your program.
  */
 public class Main {
 
+  /**
+   * The minutiae of the images compared by {@link #testCompareFingerprints}.
+   */
+  private static final MinutiaeCache MINUTIAE_CACHE = new MinutiaeCache(256);
+
   /**
    * Main entry point of the program.
    *
@@ -32,6 +57,25 @@ public class Main {
     //testApplyRotation();
     //testApplyTranslation();
 	//testThinningStep();
+	//testBitwiseThinning();
+	//testNeighbourhood();
+	//testParallelExtract();
+	//testMatchingMinutiaeCount();
+	//testApplyTransformation();
+	//testTrigonometry();
+	//testHoughMatcher();
+	//testScore();
+	//testGallery();
+	//testPrefilter();
+	//testTemplateFormat();
+	//testTemplateStore();
+	//testMinutiaeCache();
+	//testBinaryImageDecode();
+	//testEnrolmentPipeline();
+	//testEnrolmentPipelineErrors();
+	//testMatchingService();
+	//testDatasetBenchmark();
+	//testListener();
 	//testThin();
     //testThin2();
     //testWithSkeleton();
@@ -399,6 +443,76 @@ public class Main {
 
 
 
+  /**
+   * Compares {@link Fingerprint#thin(BinaryImage)}, the full scan of
+   * {@link BitwiseThinning#thin(BinaryImage)} and the parallel
+   * {@link Fingerprint#thin(BinaryImage, java.util.concurrent.Executor)} with
+   * the reference loop over
+   * {@link Fingerprint#thinningStep(BinaryImage, int)}, on every 3x3 pattern
+   * placed across a word boundary and on the test inputs.
+   */
+  public static void testBitwiseThinning() {
+    System.out.print("testBitwiseThinning: ");
+    boolean ok = true;
+    for (int i = 0; i < 512; i++) {
+      BinaryImage image = new BinaryImage(3, 130);
+      for (int k = 0; k < 9; k++) {
+        // the pattern is centered on the last pixel of the first word
+        image.set(k / 3, 62 + k % 3, (i >> k & 0x1) == 1);
+      }
+      ok &= Fingerprint.identical(Fingerprint.thin(image), referenceThin(image));
+      ok &= Fingerprint.identical(BitwiseThinning.thin(image), referenceThin(image));
+    }
+    String[] names = {"test_inputs/1_1_small.png", "test_inputs/skeletonTest.png", "fingerprints/1_1.png"};
+    for (String name : names) {
+      BinaryImage image = Helper.readBinaryImage(name);
+      ok &= Fingerprint.identical(Fingerprint.thin(image), referenceThin(image));
+      ok &= Fingerprint.identical(BitwiseThinning.thin(image), referenceThin(image));
+      ok &= Fingerprint.identical(Fingerprint.thin(image, ForkJoinPool.commonPool()), referenceThin(image));
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Compares the tables of {@link Neighbourhood} with the reference methods
+   * {@link Fingerprint#getNeighbours}, {@link Fingerprint#blackNeighbours} and
+   * {@link Fingerprint#transitions}.
+   */
+  public static void testNeighbourhood() {
+    System.out.print("testNeighbourhood: ");
+    boolean ok = true;
+    boolean[][] image = new boolean[3][3];
+    for (int i = 0; i < 512; i++) {
+      for (int k = 0; k < 9; k++) {
+        image[k / 3][k % 3] = (i >> k & 0x1) == 1;
+      }
+      BinaryImage packed = BinaryImage.fromArray(image);
+      for (int row = 0; row < 3; row++) {
+        for (int col = 0; col < 3; col++) {
+          boolean[] neighbours = Fingerprint.getNeighbours(image, row, col);
+          int code = Neighbourhood.code(packed, row, col);
+          ok &= arrayEqual(neighbours, Neighbourhood.toArray(code));
+          ok &= Neighbourhood.blackNeighbours(code) == Fingerprint.blackNeighbours(neighbours);
+          ok &= Neighbourhood.transitions(code) == Fingerprint.transitions(neighbours);
+        }
+      }
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Thins an image by applying the two steps until it does not change anymore.
+   */
+  private static BinaryImage referenceThin(BinaryImage image) {
+    BinaryImage previous = image;
+    BinaryImage thinned = Fingerprint.thinningStep(Fingerprint.thinningStep(image, 0), 1);
+    while (!Fingerprint.identical(previous, thinned)) {
+      previous = thinned;
+      thinned = Fingerprint.thinningStep(Fingerprint.thinningStep(thinned, 0), 1);
+    }
+    return thinned;
+  }
+
   /**
    * This function is here to help you test the functionalities of extract.
    * It will read the first fingerprint and extract the minutiae. It will save
@@ -436,6 +550,720 @@ public class Main {
     Helper.writeARGB("minutiae_" + name + ".png", colorImageSkeleton1);
   }
 
+  /**
+   * Checks that the parallel extraction returns the same minutiae, in the same
+   * order, as the serial one.
+   */
+  public static void testParallelExtract() {
+    System.out.print("testParallelExtract: ");
+    BinaryImage skeleton = Fingerprint.thin(Helper.readBinaryImage("fingerprints/1_1.png"));
+    List<int[]> expected = Fingerprint.extract(skeleton);
+    List<int[]> computed = Fingerprint.extract(skeleton, ForkJoinPool.commonPool());
+    boolean ok = expected.size() == computed.size();
+    for (int i = 0; ok && i < expected.size(); i++) {
+      ok = Arrays.equals(expected.get(i), computed.get(i));
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Compares {@link Fingerprint#matchingMinutiaeCount} with a plain double loop
+   * on random minutiae, including orientations out of <code>[0, 360)</code>.
+   */
+  public static void testMatchingMinutiaeCount() {
+    System.out.print("testMatchingMinutiaeCount: ");
+    Random random = new Random(107);
+    boolean ok = true;
+    for (int test = 0; test < 1000; test++) {
+      List<int[]> minutiae1 = randomMinutiae(random, random.nextInt(40));
+      List<int[]> minutiae2 = randomMinutiae(random, random.nextInt(40));
+      int maxDistance = random.nextInt(12);
+      int maxOrientation = random.nextInt(40);
+      int threshold = random.nextInt(30);
+      int expected = referenceMatchingMinutiaeCount(minutiae1, minutiae2, maxDistance, maxOrientation);
+      ok &= Fingerprint.matchingMinutiaeCount(minutiae1, minutiae2, maxDistance, maxOrientation) == expected;
+      int early = Fingerprint.matchingMinutiaeCount(minutiae1, minutiae2, maxDistance, maxOrientation, threshold);
+      ok &= (early >= threshold) == (expected >= threshold);
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Compares the transformation of a {@link Minutiae} set with the
+   * transformation of the equivalent list.
+   */
+  public static void testApplyTransformation() {
+    System.out.print("testApplyTransformation: ");
+    Random random = new Random(107);
+    boolean ok = true;
+    for (int test = 0; test < 1000; test++) {
+      List<int[]> minutiae = randomMinutiae(random, random.nextInt(40));
+      int centerRow = random.nextInt(300);
+      int centerCol = random.nextInt(300);
+      int rowTranslation = random.nextInt(100) - 50;
+      int colTranslation = random.nextInt(100) - 50;
+      int rotation = random.nextInt(370) - 5;
+      List<int[]> expected = Fingerprint.applyTransformation(minutiae, centerRow, centerCol, rowTranslation,
+          colTranslation, rotation);
+      Minutiae computed = new Minutiae(minutiae.size());
+      Fingerprint.applyTransformation(Minutiae.fromList(minutiae), centerRow, centerCol, rowTranslation,
+          colTranslation, rotation, computed);
+      List<int[]> computedList = computed.toList();
+      for (int i = 0; i < expected.size(); i++) {
+        ok &= Arrays.equals(expected.get(i), computedList.get(i));
+      }
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Checks that the tables of {@link Trigonometry} give exactly the values
+   * computed by {@link Math#cos} and {@link Math#sin}.
+   */
+  public static void testTrigonometry() {
+    System.out.print("testTrigonometry: ");
+    boolean ok = true;
+    for (int degrees = -1000; degrees <= 1000; degrees++) {
+      double radians = degrees * (Math.PI / 180);
+      ok &= Double.compare(Trigonometry.cos(degrees), Math.cos(radians)) == 0;
+      ok &= Double.compare(Trigonometry.sin(degrees), Math.sin(radians)) == 0;
+      ok &= Double.compare(Trigonometry.sin(degrees), Math.sin(Math.toRadians(degrees))) == 0;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Compares the voting matching with the exact one, for 1_1.png against the
+   * images of fingers 1 and 2. The voting matching must never find a match
+   * that the exact one does not find.
+   */
+  public static void testHoughMatcher() {
+    System.out.print("testHoughMatcher: ");
+    Minutiae minutiae1 = Minutiae.fromList(
+        Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage("fingerprints/1_1.png"))));
+    boolean ok = true;
+    int agree = 0;
+    int total = 0;
+    for (int finger = 1; finger <= 2; finger++) {
+      for (int i = 1; i <= 8; i++) {
+        Minutiae minutiae2 = Minutiae.fromList(Fingerprint.extract(
+            Fingerprint.thin(Helper.readBinaryImage("fingerprints/" + finger + "_" + i + ".png"))));
+        boolean expected = Fingerprint.match(minutiae1, minutiae2);
+        boolean computed = HoughMatcher.match(minutiae1, minutiae2);
+        ok &= expected || !computed;
+        agree += expected == computed ? 1 : 0;
+        total++;
+      }
+    }
+    System.out.println((ok ? "OK" : "ERROR") + " (" + agree + "/" + total + " agree)");
+  }
+
+  /**
+   * Checks that the scores agree with {@link Fingerprint#match} and that the
+   * reported transformation gives the reported count.
+   */
+  public static void testScore() {
+    System.out.print("testScore: ");
+    List<int[]> minutiae1 = Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage("fingerprints/1_1.png")));
+    boolean ok = true;
+    for (String name : new String[] {"1_2", "2_1"}) {
+      List<int[]> minutiae2 = Fingerprint.extract(
+          Fingerprint.thin(Helper.readBinaryImage("fingerprints/" + name + ".png")));
+      MatchScore first = Fingerprint.score(minutiae1, minutiae2, MatchPolicy.FIRST_MATCH);
+      MatchScore best = Fingerprint.score(minutiae1, minutiae2, MatchPolicy.BEST);
+      ok &= first.matches() == Fingerprint.match(minutiae1, minutiae2);
+      ok &= best.matches() == first.matches();
+      ok &= best.count() >= first.count() && best.candidates() >= first.candidates();
+      for (MatchScore score : new MatchScore[] {first, best}) {
+        List<int[]> transformed = Fingerprint.applyTransformation(minutiae2, score.centerRow(), score.centerCol(),
+            score.rowTranslation(), score.colTranslation(), score.rotation());
+        ok &= Fingerprint.matchingMinutiaeCount(minutiae1, transformed, Fingerprint.DISTANCE_THRESHOLD,
+            Fingerprint.ORIENTATION_THRESHOLD) == score.count();
+      }
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Enrolls the images of fingers 1 to 3 and checks that the best candidates
+   * for 1_1.png are the other images of finger 1, that the search gives the
+   * same result in parallel and on the calling thread, and that a gallery
+   * created without a scorer gives the exact counts.
+   */
+  public static void testGallery() {
+    System.out.print("testGallery: ");
+    Gallery gallery = Gallery.fast();
+    for (int finger = 1; finger <= 3; finger++) {
+      for (int i = 1; i <= 8; i++) {
+        String name = finger + "_" + i;
+        gallery.add(name, Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage("fingerprints/" + name + ".png"))));
+      }
+    }
+    Minutiae probe = gallery.template(0);
+    List<Gallery.Candidate> parallel = gallery.identify(probe, 8, ForkJoinPool.commonPool());
+    List<Gallery.Candidate> serial = gallery.identify(probe, 8, Runnable::run);
+    boolean ok = parallel.size() == 8 && serial.size() == 8;
+    for (int i = 0; ok && i < 8; i++) {
+      ok = parallel.get(i).index() == serial.get(i).index()
+          && parallel.get(i).score().count() == serial.get(i).score().count()
+          && parallel.get(i).id().startsWith("1_");
+    }
+    Gallery exact = new Gallery();
+    exact.add(gallery.id(1), gallery.template(1));
+    exact.add(gallery.id(8), gallery.template(8));
+    for (Gallery.Candidate candidate : exact.identify(probe, 2, Runnable::run)) {
+      ok &= candidate.score().count()
+          == Fingerprint.score(probe, exact.template(candidate.index()), MatchPolicy.BEST).count();
+    }
+    System.out.println(ok ? "OK" : "ERROR " + parallel);
+  }
+
+  /**
+   * Checks the pre-filter on pairs of images of fingerprints/ that were not used
+   * to choose its threshold. The threshold keeps 95% of the pairs of
+   * impressions of the same finger, among fingers 1 to 5, that
+   * Fingerprint.match accepts. The images of fingers 6 and 8 are then compared
+   * with the images of fingers 1, 2, 6 and 8, which have few enough minutiae to
+   * be matched quickly: the pre-filter must keep at least 90% of the pairs that
+   * Fingerprint.match accepts, whatever their fingers, and skip at least half
+   * of the others.
+   */
+  public static void testPrefilter() {
+    System.out.print("testPrefilter: ");
+    int impressions = 8;
+    List<Minutiae> minutiae = new ArrayList<Minutiae>();
+    PrefilterIndex index = new PrefilterIndex();
+    List<float[]> signatures = new ArrayList<float[]>();
+    for (int finger = 1; finger <= 10; finger++) {
+      for (int i = 1; i <= impressions; i++) {
+        minutiae.add(Minutiae.fromList(Fingerprint.extract(
+            Fingerprint.thin(Helper.readBinaryImage("fingerprints/" + finger + "_" + i + ".png")))));
+        index.add(minutiae.get(minutiae.size() - 1));
+        signatures.add(PrefilterIndex.signature(minutiae.get(minutiae.size() - 1)));
+      }
+    }
+
+    List<Double> matching = new ArrayList<Double>();
+    for (int a = 0; a < 5 * impressions; a++) {
+      for (int b = a / impressions * impressions; b < (a / impressions + 1) * impressions; b++) {
+        if (a != b && Fingerprint.match(minutiae.get(a), minutiae.get(b))) {
+          matching.add(index.similarity(signatures.get(a), b));
+        }
+      }
+    }
+    double[] similarities = new double[matching.size()];
+    for (int i = 0; i < similarities.length; i++) {
+      similarities[i] = matching.get(i);
+    }
+    double threshold = PrefilterIndex.thresholdForRecall(similarities, 0.95);
+
+    int matches = 0;
+    int kept = 0;
+    int others = 0;
+    int skipped = 0;
+    for (int probeFinger : new int[] {6, 8}) {
+      for (int templateFinger : new int[] {1, 2, 6, 8}) {
+        for (int i = 0; i < impressions; i++) {
+          for (int j = 0; j < impressions; j++) {
+            int a = (probeFinger - 1) * impressions + i;
+            int b = (templateFinger - 1) * impressions + j;
+            if (a == b) {
+              continue;
+            }
+            boolean skip = index.similarity(signatures.get(a), b) < threshold;
+            if (Fingerprint.match(minutiae.get(a), minutiae.get(b))) {
+              matches++;
+              kept += skip ? 0 : 1;
+            } else {
+              others++;
+              skipped += skip ? 1 : 0;
+            }
+          }
+        }
+      }
+    }
+    boolean ok = kept >= 0.9 * matches && skipped >= others / 2.0;
+    System.out.printf("%s (threshold %.3f: %d/%d matches kept, %d/%d others skipped)%n", ok ? "OK" : "ERROR", threshold,
+        kept, matches, skipped, others);
+  }
+
+  /**
+   * Checks that templates give back the encoded minutiae, for random sets and
+   * for 1_1.png, and that corrupted templates are rejected.
+   */
+  public static void testTemplateFormat() {
+    System.out.print("testTemplateFormat: ");
+    Random random = new Random(107);
+    List<List<int[]>> sets = new ArrayList<List<int[]>>();
+    sets.add(Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage("fingerprints/1_1.png"))));
+    for (int test = 0; test < 1000; test++) {
+      List<int[]> minutiae = new ArrayList<int[]>();
+      int count = random.nextInt(300);
+      for (int i = 0; i < count; i++) {
+        int row = random.nextBoolean() ? random.nextInt() : random.nextInt(600) - 100;
+        minutiae.add(new int[] {row, random.nextInt(600) - 100, random.nextInt(1 << TemplateFormat.ORIENTATION_BITS)});
+      }
+      sets.add(minutiae);
+    }
+    boolean ok = true;
+    for (List<int[]> minutiae : sets) {
+      byte[] template = TemplateFormat.encode(Minutiae.fromList(minutiae));
+      ok &= template.length == TemplateFormat.encodedSize(Minutiae.fromList(minutiae));
+      List<int[]> decoded = TemplateFormat.decode(template).toList();
+      ok &= decoded.size() == minutiae.size();
+      for (int i = 0; ok && i < minutiae.size(); i++) {
+        ok = Arrays.equals(minutiae.get(i), decoded.get(i));
+      }
+      if (template.length > 5) {
+        try {
+          TemplateFormat.decode(Arrays.copyOf(template, template.length - 1));
+          ok &= minutiae.isEmpty();
+        } catch (IllegalArgumentException e) {
+          // expected, the template is truncated
+        }
+      }
+    }
+    byte[] template = TemplateFormat.encode(Minutiae.fromList(sets.get(0)));
+    template[4] = (byte) (TemplateFormat.VERSION + 1);
+    try {
+      TemplateFormat.decode(template);
+      ok = false;
+    } catch (IllegalArgumentException e) {
+      // expected, the version is unknown
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Writes the images of fingers 1 to 3 in a store and checks that the mapped
+   * store gives the same templates and the same search results as a gallery.
+   */
+  public static void testTemplateStore() {
+    System.out.print("testTemplateStore: ");
+    Gallery gallery = Gallery.fast();
+    List<String> ids = new ArrayList<String>();
+    List<Minutiae> templates = new ArrayList<Minutiae>();
+    for (int finger = 1; finger <= 3; finger++) {
+      for (int i = 1; i <= 8; i++) {
+        String name = finger + "_" + i;
+        Minutiae minutiae = Minutiae.fromList(
+            Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage("fingerprints/" + name + ".png"))));
+        gallery.add(name, minutiae);
+        ids.add(name);
+        templates.add(minutiae);
+      }
+    }
+    boolean ok = true;
+    try {
+      Path path = Files.createTempFile("templates", ".fpts");
+      try {
+        TemplateStore.write(path, ids, templates);
+        TemplateStore store = TemplateStore.open(path);
+        ok &= store.size() == templates.size();
+        float[] signature = PrefilterIndex.signature(templates.get(0));
+        for (int i = 0; ok && i < store.size(); i++) {
+          ok = store.id(i).equals(ids.get(i));
+          List<int[]> expected = templates.get(i).toList();
+          List<int[]> computed = store.minutiae(i).toList();
+          ok &= expected.size() == computed.size();
+          for (int j = 0; ok && j < expected.size(); j++) {
+            ok = Arrays.equals(expected.get(j), computed.get(j));
+          }
+          ok &= store.similarity(signature, i) == PrefilterIndex.similarity(signature,
+              FloatBuffer.wrap(PrefilterIndex.signature(templates.get(i))), 0);
+        }
+        List<Gallery.Candidate> expected = gallery.identify(templates.get(0), 8, 0.5, Runnable::run);
+        List<Gallery.Candidate> computed = store.identify(templates.get(0), 8, 0.5,
+            (p, t) -> HoughMatcher.score(p, t, MatchPolicy.BEST), ForkJoinPool.commonPool());
+        ok &= expected.size() == computed.size();
+        for (int i = 0; ok && i < expected.size(); i++) {
+          ok = expected.get(i).id().equals(computed.get(i).id())
+              && expected.get(i).score().count() == computed.get(i).score().count();
+        }
+      } finally {
+        Files.delete(path);
+      }
+    } catch (IOException e) {
+      System.out.println(e);
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Checks that the cache gives the extracted minutiae, from memory then from
+   * the directory once the memory tier is evicted.
+   */
+  public static void testMinutiaeCache() {
+    System.out.print("testMinutiaeCache: ");
+    boolean ok = true;
+    try {
+      Path directory = Files.createTempDirectory("minutiae");
+      try {
+        String[] names = {"fingerprints/1_1.png", "fingerprints/1_2.png"};
+        MinutiaeCache cache = new MinutiaeCache(1, directory);
+        for (int round = 0; round < 2; round++) {
+          for (String name : names) {
+            List<int[]> expected = Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage(name)));
+            List<int[]> computed = cache.get(name).toList();
+            ok &= expected.size() == computed.size();
+            for (int i = 0; ok && i < expected.size(); i++) {
+              ok = Arrays.equals(expected.get(i), computed.get(i));
+            }
+          }
+        }
+        // the memory tier holds only one set, so the second round reads the disk
+        ok &= cache.misses() == 2 && cache.diskHits() == 2 && cache.hits() == 0;
+        cache.get(names[1]);
+        ok &= cache.hits() == 1;
+        MinutiaeCache other = new MinutiaeCache(16, directory);
+        other.get(names[0]);
+        ok &= other.misses() == 0 && other.diskHits() == 1;
+      } finally {
+        try (Stream<Path> files = Files.list(directory)) {
+          for (Path file : (Iterable<Path>) files::iterator) {
+            Files.delete(file);
+          }
+        }
+        Files.delete(directory);
+      }
+    } catch (IOException e) {
+      System.out.println(e);
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Checks that reading the data buffers gives the same binary images as
+   * thresholding the colors returned by <code>getRGB</code>, for the bundled
+   * images and for random images of the usual layouts, before and after
+   * writing them as PNG.
+   */
+  public static void testBinaryImageDecode() {
+    System.out.print("testBinaryImageDecode: ");
+    boolean ok = true;
+    for (String directory : new String[] {"fingerprints", "test_inputs", "test_outputs"}) {
+      File[] files = new File(directory).listFiles((dir, name) -> name.endsWith(".png"));
+      for (File file : files == null ? new File[0] : files) {
+        ok &= Helper.readBinaryImage(file.getPath()).equals(Helper.toBinaryImage(Helper.readARGB(file.getPath())));
+      }
+    }
+    Random random = new Random(107);
+    int[] types = {BufferedImage.TYPE_BYTE_BINARY, BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_BYTE_INDEXED,
+        BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_USHORT_GRAY};
+    try {
+      for (int type : types) {
+        BufferedImage image = new BufferedImage(1 + random.nextInt(150), 1 + random.nextInt(150), type);
+        for (int row = 0; row < image.getHeight(); row++) {
+          for (int col = 0; col < image.getWidth(); col++) {
+            image.setRGB(col, row, random.nextInt());
+          }
+        }
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(png.toByteArray()));
+        for (BufferedImage tested : new BufferedImage[] {image, decoded}) {
+          int[][] argb = new int[tested.getHeight()][tested.getWidth()];
+          for (int row = 0; row < tested.getHeight(); row++) {
+            for (int col = 0; col < tested.getWidth(); col++) {
+              argb[row][col] = tested.getRGB(col, row) & 0xffffff;
+            }
+          }
+          ok &= Helper.toBinaryImage(tested).equals(Helper.toBinaryImage(argb));
+        }
+        ok &= Helper.decodeBinaryImage(png.toByteArray()).equals(Helper.toBinaryImage(decoded));
+      }
+    } catch (IOException e) {
+      System.out.println(e);
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Enrolls the bundled fingerprints and a missing file with small queues, and
+   * checks the templates against a serial extraction.
+   */
+  public static void testEnrolmentPipeline() {
+    System.out.print("testEnrolmentPipeline: ");
+    EnrolmentPipeline pipeline = new EnrolmentPipeline(2);
+    pipeline.setParallelism(EnrolmentPipeline.Stage.DECODE, 2);
+    pipeline.setParallelism(EnrolmentPipeline.Stage.THIN, 3);
+    List<Path> paths = new ArrayList<Path>();
+    for (int i = 1; i <= 8; i++) {
+      paths.add(Paths.get("fingerprints/1_" + i + ".png"));
+    }
+    paths.add(Paths.get("fingerprints/missing.png"));
+    Map<Path, Minutiae> templates = new ConcurrentHashMap<Path, Minutiae>();
+    boolean ok = true;
+    try {
+      EnrolmentPipeline.Result result = pipeline.run(paths.iterator(), templates::put);
+      ok &= result.enrolled() == 8 && result.failures().size() == 1
+          && result.failures().get(0).startsWith(paths.get(8) + ": decode: ");
+      for (int i = 0; ok && i < 8; i++) {
+        List<int[]> expected = Fingerprint.extract(Fingerprint.thin(Helper.readBinaryImage(paths.get(i).toString())));
+        List<int[]> computed = templates.get(paths.get(i)).toList();
+        ok = expected.size() == computed.size();
+        for (int j = 0; ok && j < expected.size(); j++) {
+          ok = Arrays.equals(expected.get(j), computed.get(j));
+        }
+      }
+    } catch (InterruptedException e) {
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Starts a service on a free port and sends it a matching pair, a non
+   * matching pair, an incomplete request, paths outside of its directory and a
+   * file that is not an image.
+   */
+  public static void testMatchingService() {
+    System.out.print("testMatchingService: ");
+    boolean ok = true;
+    try {
+      MatchingService service = new MatchingService(0, Paths.get("fingerprints"), 2, new MinutiaeCache(8));
+      service.start();
+      try {
+        String url = "http://localhost:" + service.port() + "/match?";
+        ok &= httpGet(url + "image1=1_1.png&image2=1_2.png").startsWith("200 {\"match\":true,");
+        ok &= httpGet(url + "image1=1_1.png&image2=2_1.png&mode=fast").startsWith("200 {\"match\":false,");
+        ok &= httpGet(url + "image1=1_1.png").startsWith("400 ");
+        ok &= httpGet(url + "image1=1_1.png&image2=missing.png").startsWith("404 ");
+        // the file exists, so only the refusal prevents the comparison
+        ok &= httpGet(url + "image1=1_1.png&image2=../test_inputs/1_1_small.png").startsWith("403 ");
+      } finally {
+        service.stop();
+      }
+      // a link inside the root directory to an image outside of it
+      Path root = Files.createTempDirectory("matching-service");
+      Path link = root.resolve("link.png");
+      Files.copy(Paths.get("fingerprints/1_1.png"), root.resolve("1_1.png"));
+      Files.createSymbolicLink(link, Paths.get("fingerprints/1_2.png").toAbsolutePath());
+      Files.write(root.resolve("text.png"), "not an image".getBytes(StandardCharsets.UTF_8));
+      service = new MatchingService(0, root, 1, new MinutiaeCache(8));
+      service.start();
+      try {
+        String url = "http://localhost:" + service.port() + "/match?image1=1_1.png";
+        ok &= httpGet(url + "&image2=link.png").startsWith("403 ");
+        ok &= httpGet(url + "&image2=text.png").startsWith("422 ");
+      } finally {
+        service.stop();
+        Files.delete(root.resolve("text.png"));
+        Files.delete(link);
+        Files.delete(root.resolve("1_1.png"));
+        Files.delete(root);
+      }
+    } catch (IOException e) {
+      System.out.println(e);
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Runs the fast matcher over the images of the first two fingers and checks
+   * the number of pairs of each kind, and that unknown stages are refused.
+   */
+  public static void testDatasetBenchmark() {
+    System.out.print("testDatasetBenchmark: ");
+    boolean ok;
+    try {
+      List<Path> images = DatasetBenchmark.images(Paths.get("fingerprints"));
+      DatasetBenchmark benchmark = new DatasetBenchmark(images.subList(0, 16));
+      DatasetBenchmark.Result result = benchmark.run(DatasetBenchmark.Engine.FAST, 2);
+      ok = images.get(15).getFileName().toString().equals("2_8.png") && result.pairs() == 16 * 15
+          && result.genuinePairs() == 2 * 8 * 7 && result.falseRejects() < result.genuinePairs()
+          && result.falseAccepts() < result.impostorPairs() && result.pairsPerSecond() > 0
+          && result.percentile("match", 50) <= result.percentile("match", 99) && result.peakHeapBytes() > 0;
+      Path output = Files.createTempFile("dataset-benchmark", ".json");
+      benchmark.write(output, Arrays.asList(result));
+      ok &= new String(Files.readAllBytes(output), StandardCharsets.UTF_8).contains("\"engine\": \"fast\"");
+      Files.delete(output);
+      try {
+        result.percentile("unknown", 50);
+        ok = false;
+      } catch (IllegalArgumentException e) {
+        // expected, the stage does not exist
+      }
+    } catch (IOException e) {
+      System.out.println(e);
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * Registers a listener and checks the counters reported by the stages on the
+   * first two images of finger 1, and that the serial and parallel thinnings
+   * report the same number of iterations on every image.
+   */
+  public static void testListener() {
+    System.out.print("testListener: ");
+    List<long[]> events = new ArrayList<long[]>();
+    Fingerprint.setListener(new FingerprintListener() {
+      @Override
+      public void thinned(final int height, final int width, final int iterations, final long nanos) {
+        events.add(new long[] {0, height, width, iterations, nanos});
+      }
+
+      @Override
+      public void extracted(final int candidates, final int minutiae, final long nanos) {
+        events.add(new long[] {1, candidates, minutiae, nanos});
+      }
+
+      @Override
+      public void matched(final int minutiae1, final int minutiae2, final int transformations,
+          final boolean matches, final long nanos) {
+        events.add(new long[] {2, minutiae1, minutiae2, transformations, matches ? 1 : 0, nanos});
+      }
+    });
+    boolean ok;
+    try {
+      BinaryImage image = Helper.readBinaryImage("fingerprints/1_1.png");
+      BinaryImage skeleton = Fingerprint.thin(image);
+      Minutiae minutiae1 = Minutiae.fromList(Fingerprint.extract(skeleton));
+      Minutiae minutiae2 = Minutiae.fromList(Fingerprint.extract(
+          Fingerprint.thin(Helper.readBinaryImage("fingerprints/1_2.png"), ForkJoinPool.commonPool()),
+          ForkJoinPool.commonPool()));
+      boolean matches = Fingerprint.match(minutiae1, minutiae2);
+      int transformations = Fingerprint.score(minutiae1, minutiae2, MatchPolicy.FIRST_MATCH).candidates();
+      ok = events.size() == 6;
+      ok &= events.get(0)[0] == 0 && events.get(0)[1] == image.height() && events.get(0)[2] == image.width()
+          && events.get(0)[3] > 2 && events.get(0)[4] > 0;
+      ok &= events.get(1)[0] == 1 && events.get(1)[1] > events.get(1)[2] && events.get(1)[2] == minutiae1.size();
+      ok &= events.get(2)[0] == 0 && events.get(3)[0] == 1 && events.get(3)[2] == minutiae2.size();
+      ok &= Arrays.equals(Arrays.copyOf(events.get(4), 5),
+          new long[] {2, minutiae1.size(), minutiae2.size(), transformations, matches ? 1 : 0});
+      ok &= Arrays.equals(Arrays.copyOf(events.get(5), 5), Arrays.copyOf(events.get(4), 5));
+
+      for (int finger = 1; ok && finger <= 10; finger++) {
+        for (int i = 1; ok && i <= 8; i++) {
+          BinaryImage fingerprint = Helper.readBinaryImage("fingerprints/" + finger + "_" + i + ".png");
+          events.clear();
+          Fingerprint.thin(fingerprint);
+          Fingerprint.thin(fingerprint, ForkJoinPool.commonPool());
+          ok = events.size() == 2 && events.get(0)[3] == events.get(1)[3];
+        }
+      }
+    } finally {
+      Fingerprint.setListener(null);
+    }
+    events.clear();
+    Fingerprint.match(Minutiae.fromList(new ArrayList<int[]>()), Minutiae.fromList(new ArrayList<int[]>()));
+    ok &= events.isEmpty();
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  /**
+   * @return the status code and the body of the response, separated by a space.
+   */
+  private static String httpGet(final String url) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    try {
+      int status = connection.getResponseCode();
+      try (InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+        return status + " " + new String(body.readAllBytes(), StandardCharsets.UTF_8);
+      }
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+  /**
+   * Checks that the pipeline stops and rethrows when the sink throws an error
+   * or an unexpected exception, or when the iterator of the paths throws, with
+   * queues of a single image so that the other stages would block if they were
+   * not stopped.
+   */
+  public static void testEnrolmentPipelineErrors() {
+    System.out.print("testEnrolmentPipelineErrors: ");
+    List<Path> paths = new ArrayList<Path>();
+    for (int i = 1; i <= 8; i++) {
+      paths.add(Paths.get("fingerprints/1_" + i + ".png"));
+    }
+    EnrolmentPipeline pipeline = new EnrolmentPipeline(1);
+    List<Throwable> thrown = new ArrayList<Throwable>();
+    Thread run = new Thread(() -> {
+      try {
+        pipeline.run(paths.iterator(), (path, minutiae) -> {
+          throw new AssertionError("sink failed");
+        });
+      } catch (Throwable e) {
+        thrown.add(e);
+      }
+      Iterator<Path> failing = new Iterator<Path>() {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+          return true;
+        }
+
+        @Override
+        public Path next() {
+          if (next == 3) {
+            throw new IllegalStateException("listing failed");
+          }
+          return paths.get(next++);
+        }
+      };
+      try {
+        pipeline.run(failing, (path, minutiae) -> { });
+      } catch (Throwable e) {
+        thrown.add(e);
+      }
+      try {
+        pipeline.run(paths.iterator(), (path, minutiae) -> {
+          throw new NullPointerException("sink bug");
+        });
+      } catch (Throwable e) {
+        thrown.add(e);
+      }
+    });
+    run.setDaemon(true);
+    run.start();
+    boolean ok;
+    try {
+      run.join(20000);
+      ok = !run.isAlive() && thrown.size() == 3 && thrown.get(0) instanceof AssertionError
+          && "sink failed".equals(thrown.get(0).getMessage()) && thrown.get(1) instanceof IllegalStateException
+          && thrown.get(2) instanceof NullPointerException && "sink bug".equals(thrown.get(2).getMessage());
+    } catch (InterruptedException e) {
+      ok = false;
+    }
+    System.out.println(ok ? "OK" : "ERROR");
+  }
+
+  private static List<int[]> randomMinutiae(Random random, int count) {
+    List<int[]> minutiae = new ArrayList<int[]>();
+    for (int i = 0; i < count; i++) {
+      minutiae.add(new int[] {random.nextInt(60) - 10, random.nextInt(60) - 10, random.nextInt(400) - 20});
+    }
+    return minutiae;
+  }
+
+  /**
+   * Counts the overlapping minutiae by comparing every pair.
+   */
+  private static int referenceMatchingMinutiaeCount(List<int[]> minutiae1, List<int[]> minutiae2,
+      int maxDistance, int maxOrientation) {
+    int count = 0;
+    for (int[] m1 : minutiae1) {
+      for (int[] m2 : minutiae2) {
+        double distance = Math.sqrt(Math.pow(m1[0] - m2[0], 2) + Math.pow(m1[1] - m2[1], 2));
+        if (distance <= maxDistance && Math.abs(m1[2] - m2[2]) <= maxOrientation) {
+          count++;
+          break;
+        }
+      }
+    }
+    return count;
+  }
+
   /**
    * This function is here to help you test the functionalities of extract
    * without using the function thin. It will read the first fingerprint and
@@ -480,21 +1308,19 @@ public class Main {
    * file name2.png. The third parameter indicates if we expected a match or not.
    */
   public static void testCompareFingerprints(String name1, String name2, boolean expectedResult) {
-	    boolean[][] image1 = Helper.readBinary("resources/fingerprints/" + name1 + ".png");
-	    // Helper.show(Helper.fromBinary(image1), "Image1");
-	    boolean[][] skeleton1 = Fingerprint.thin(image1);
-	    //Helper.writeBinary("skeleton_" + name1 + ".png", skeleton1);
-	    List<int[]> minutiae1 = Fingerprint.extract(skeleton1);
+	    // the minutiae of an image are only extracted the first time it is compared
+	    List<int[]> minutiae1 = MINUTIAE_CACHE.get("resources/fingerprints/" + name1 + ".png").toList();
 	    //printMinutiae(minutiae1);
 
+	    //boolean[][] skeleton1 = Fingerprint.thin(Helper.readBinary("resources/fingerprints/" + name1 + ".png"));
+	    //Helper.writeBinary("skeleton_" + name1 + ".png", skeleton1);
 	    //int[][] colorImageSkeleton1 = Helper.fromBinary(skeleton1);
 	    //Helper.drawMinutia(colorImageSkeleton1, minutiae1);
 	    //Helper.writeARGB("./minutiae_" + name1 + ".png", colorImageSkeleton1);
 
-	    boolean[][] image2 = Helper.readBinary("resources/fingerprints/" + name2 + ".png");
-	    boolean[][] skeleton2 = Fingerprint.thin(image2);
-	    List<int[]> minutiae2 = Fingerprint.extract(skeleton2);
+	    List<int[]> minutiae2 = MINUTIAE_CACHE.get("resources/fingerprints/" + name2 + ".png").toList();
 
+	    //boolean[][] skeleton2 = Fingerprint.thin(Helper.readBinary("resources/fingerprints/" + name2 + ".png"));
 	    //int[][] colorImageSkeleton2 = Helper.fromBinary(skeleton2);
 	    //Helper.drawMinutia(colorImageSkeleton2, minutiae2);
 	    //Helper.writeARGB("./minutiae_" + name2 + ".png", colorImageSkeleton2);
@@ -0,0 +1,23 @@
+package cs107;
+
+/**
+ * When {@link Fingerprint#score(Minutiae, Minutiae, MatchPolicy)} stops
+ * evaluating the candidate transformations.
+ */
+public enum MatchPolicy {
+
+	/**
+	 * Stops at the first transformation with at least
+	 * {@link Fingerprint#FOUND_THRESHOLD} matching minutiae, as
+	 * {@link Fingerprint#match(Minutiae, Minutiae)} does. When the fingerprints
+	 * match, the count is the one of that transformation, not necessarily the
+	 * best one.
+	 */
+	FIRST_MATCH,
+
+	/**
+	 * Evaluates every transformation and keeps the one with the most matching
+	 * minutiae.
+	 */
+	BEST
+}
@@ -0,0 +1,112 @@
+package cs107;
+
+/**
+ * Result of {@link Fingerprint#score(Minutiae, Minutiae, MatchPolicy)}: the
+ * best number of matching minutiae found and the transformation giving it.
+ * <p>
+ * The transformation is the one applied to the second fingerprint with
+ * {@link Fingerprint#applyTransformation(Minutiae, int, int, int, int, int, Minutiae)}.
+ * When no transformation was evaluated, the count is <code>0</code> and the
+ * transformation is the identity.
+ */
+public final class MatchScore {
+
+	private final int count;
+	private final int centerRow;
+	private final int centerCol;
+	private final int rowTranslation;
+	private final int colTranslation;
+	private final int rotation;
+	private final int candidates;
+
+	/**
+	 * Creates a score.
+	 *
+	 * @param count          the number of matching minutiae.
+	 * @param centerRow      the row around which the second fingerprint is
+	 *                       rotated.
+	 * @param centerCol      the column around which the second fingerprint is
+	 *                       rotated.
+	 * @param rowTranslation the vertical translation.
+	 * @param colTranslation the horizontal translation.
+	 * @param rotation       the rotation in degrees.
+	 * @param candidates     the number of transformations evaluated.
+	 */
+	public MatchScore(int count, int centerRow, int centerCol, int rowTranslation, int colTranslation, int rotation,
+			int candidates) {
+		assert (count >= 0 && candidates >= 0);
+		this.count = count;
+		this.centerRow = centerRow;
+		this.centerCol = centerCol;
+		this.rowTranslation = rowTranslation;
+		this.colTranslation = colTranslation;
+		this.rotation = rotation;
+		this.candidates = candidates;
+	}
+
+	/**
+	 * @return the number of matching minutiae of the transformation.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * @return <code>true</code> if the count reaches
+	 *         {@link Fingerprint#FOUND_THRESHOLD}, that is if
+	 *         {@link Fingerprint#match(Minutiae, Minutiae)} returns
+	 *         <code>true</code>.
+	 */
+	public boolean matches() {
+		return count >= Fingerprint.FOUND_THRESHOLD;
+	}
+
+	/**
+	 * @return the row around which the second fingerprint is rotated.
+	 */
+	public int centerRow() {
+		return centerRow;
+	}
+
+	/**
+	 * @return the column around which the second fingerprint is rotated.
+	 */
+	public int centerCol() {
+		return centerCol;
+	}
+
+	/**
+	 * @return the vertical translation.
+	 */
+	public int rowTranslation() {
+		return rowTranslation;
+	}
+
+	/**
+	 * @return the horizontal translation.
+	 */
+	public int colTranslation() {
+		return colTranslation;
+	}
+
+	/**
+	 * @return the rotation in degrees.
+	 */
+	public int rotation() {
+		return rotation;
+	}
+
+	/**
+	 * @return the number of transformations evaluated.
+	 */
+	public int candidates() {
+		return candidates;
+	}
+
+	@Override
+	public String toString() {
+		return "MatchScore[count=" + count + ", center=(" + centerRow + ", " + centerCol + "), translation=("
+				+ rowTranslation + ", " + colTranslation + "), rotation=" + rotation + ", candidates=" + candidates
+				+ "]";
+	}
+}
@@ -0,0 +1,259 @@
+package cs107;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP service comparing fingerprint images.
+ * <p>
+ * <code>GET /match?image1=a.png&amp;image2=b.png[&amp;mode=fast]</code>
+ * answers <code>{"match":true,"count":23,"candidates":118}</code>, the score
+ * of {@link Fingerprint#score(Minutiae, Minutiae, MatchPolicy)} (or of
+ * {@link HoughMatcher} with <code>mode=fast</code>) stopping at the first
+ * match. The paths are relative to the root directory of the service, and
+ * paths outside of it are refused.
+ * <p>
+ * Each request runs on its own thread, which reads the files: a virtual thread
+ * when the Java runtime has them (Java 21 and later), otherwise a thread of an
+ * unbounded pool. Waiting for the disk thus never limits the number of
+ * requests in progress. The decoding, thinning, extraction and matching run on
+ * a pool with a fixed number of platform threads, so that concurrent requests
+ * never use more threads than cores for computing. The minutiae of the images
+ * are kept in a {@link MinutiaeCache}.
+ * <p>
+ * The service only listens on the loopback interface.
+ */
+public final class MatchingService {
+
+	private final HttpServer server;
+	private final ExecutorService requests;
+	private final ExecutorService cpu;
+	private final MinutiaeCache cache;
+	private final Path root;
+
+	/**
+	 * Creates a service, which must then be started.
+	 *
+	 * @param port       the port to listen on, <code>0</code> for any free port.
+	 * @param root       the directory of the images.
+	 * @param cpuThreads the number of threads computing, usually the number of
+	 *                   cores.
+	 * @param cache      the cache of the minutiae of the images.
+	 * @throws IOException if the root directory does not exist or the port cannot
+	 *                     be opened.
+	 */
+	public MatchingService(int port, Path root, int cpuThreads, MinutiaeCache cache) throws IOException {
+		assert (root != null && cache != null);
+		assert (cpuThreads > 0);
+		this.root = root.toRealPath();
+		this.cache = cache;
+		requests = requestExecutor();
+		cpu = Executors.newFixedThreadPool(cpuThreads, daemonThreads("matching-cpu-"));
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(requests);
+		server.createContext("/match", this::match);
+	}
+
+	/**
+	 * Returns an executor running each task on a new virtual thread if the
+	 * runtime supports them. It is found by reflection, so that the service still
+	 * compiles and runs on Java 17.
+	 */
+	private static ExecutorService requestExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			// the threads mostly wait for the disk and the network, so they are not
+			// bounded either
+			return Executors.newCachedThreadPool(daemonThreads("matching-request-"));
+		}
+	}
+
+	private static ThreadFactory daemonThreads(String prefix) {
+		AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	/**
+	 * Starts listening.
+	 */
+	public void start() {
+		server.start();
+	}
+
+	/**
+	 * Stops listening, lets the requests in progress finish for at most one
+	 * second, and stops the threads.
+	 */
+	public void stop() {
+		server.stop(1);
+		requests.shutdown();
+		cpu.shutdown();
+	}
+
+	/**
+	 * @return the port the service listens on.
+	 */
+	public int port() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Handles <code>/match</code>, on a request thread.
+	 */
+	private void match(HttpExchange exchange) throws IOException {
+		try {
+			Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+			String name1 = parameters.get("image1");
+			String name2 = parameters.get("image2");
+			if (name1 == null || name2 == null) {
+				respond(exchange, 400, error("the parameters image1 and image2 are required"));
+				return;
+			}
+			boolean fast = "fast".equals(parameters.get("mode"));
+			byte[] content1;
+			byte[] content2;
+			try {
+				Path path1 = resolve(name1);
+				Path path2 = resolve(name2);
+				if (path1 == null || path2 == null) {
+					respond(exchange, 403, error("the images must be in the root directory"));
+					return;
+				}
+				content1 = Files.readAllBytes(path1);
+				content2 = Files.readAllBytes(path2);
+			} catch (InvalidPathException e) {
+				respond(exchange, 400, error("invalid path: " + e.getMessage()));
+				return;
+			} catch (IOException e) {
+				respond(exchange, 404, error("cannot read the image: " + e.getMessage()));
+				return;
+			}
+
+			// the computation runs on the bounded pool while this thread waits
+			MatchScore score;
+			try {
+				score = CompletableFuture.supplyAsync(() -> score(content1, content2, fast), cpu).join();
+			} catch (RejectedExecutionException e) {
+				// the service is stopping
+				respond(exchange, 503, error("the service is not available"));
+				return;
+			} catch (CompletionException e) {
+				if (e.getCause() instanceof IllegalArgumentException) {
+					respond(exchange, 422, error(String.valueOf(e.getCause().getMessage())));
+				} else {
+					respond(exchange, 500, error("internal error: " + e.getCause()));
+				}
+				return;
+			}
+			respond(exchange, 200, "{\"match\":" + score.matches() + ",\"count\":" + score.count() + ",\"candidates\":"
+					+ score.candidates() + "}");
+		} finally {
+			exchange.close();
+		}
+	}
+
+	/**
+	 * Scores two images, on a computing thread.
+	 */
+	private MatchScore score(byte[] content1, byte[] content2, boolean fast) {
+		Minutiae minutiae1 = cache.get(content1);
+		Minutiae minutiae2 = cache.get(content2);
+		if (minutiae1 == null || minutiae2 == null) {
+			throw new IllegalArgumentException("cannot decode the image");
+		}
+		return fast ? HoughMatcher.score(minutiae1, minutiae2, MatchPolicy.FIRST_MATCH)
+				: Fingerprint.score(minutiae1, minutiae2, MatchPolicy.FIRST_MATCH);
+	}
+
+	/**
+	 * Resolves a path relatively to the root directory. The links are followed,
+	 * so a link inside the root directory cannot give access to a file outside of
+	 * it.
+	 *
+	 * @return the real path of the file, or <code>null</code> if it is outside of
+	 *         the root directory.
+	 * @throws IOException if the file does not exist.
+	 */
+	private Path resolve(String name) throws IOException {
+		Path path = root.resolve(name).toRealPath();
+		return path.startsWith(root) ? path : null;
+	}
+
+	private static Map<String, String> parameters(String query) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		if (query == null) {
+			return parameters;
+		}
+		for (String parameter : query.split("&")) {
+			int equals = parameter.indexOf('=');
+			if (equals > 0) {
+				parameters.put(URLDecoder.decode(parameter.substring(0, equals), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+			}
+		}
+		return parameters;
+	}
+
+	private static String error(String message) {
+		StringBuilder json = new StringBuilder("{\"error\":\"");
+		for (int i = 0; i < message.length(); ++i) {
+			char c = message.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20 || c == 0x7F) {
+				json.append(String.format("\\u%04x", (int) c));
+			} else {
+				json.append(c);
+			}
+		}
+		return json.append("\"}").toString();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json) throws IOException {
+		byte[] body = json.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream output = exchange.getResponseBody()) {
+			output.write(body);
+		}
+	}
+
+	/**
+	 * Starts a service on the given port (8080 by default) serving the images of
+	 * the working directory, until the process is stopped.
+	 *
+	 * @param args the port, optional.
+	 * @throws IOException if the port cannot be opened.
+	 */
+	public static void main(String[] args) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+		MatchingService service = new MatchingService(port, Paths.get(""),
+				Runtime.getRuntime().availableProcessors(), new MinutiaeCache(1024));
+		service.start();
+		System.out.println("Listening on http://localhost:" + service.port() + "/match");
+	}
+}
@@ -0,0 +1,145 @@
+package cs107;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Set of minutiae stored as struct-of-arrays buffers.
+ * <p>
+ * It holds the same information as the <code>List&lt;int[]&gt;</code> returned
+ * by {@link Fingerprint#extract(boolean[][])}, but with one array per
+ * component instead of one array per minutia. A set can be filled again with
+ * another set of at most the same capacity, which is how
+ * {@link Fingerprint#match(Minutiae, Minutiae)} transforms minutiae without
+ * allocating.
+ */
+public final class Minutiae {
+
+	private int size;
+	final int[] rows;
+	final int[] cols;
+	final int[] orientations;
+
+	/**
+	 * Creates an empty set.
+	 *
+	 * @param capacity the maximum number of minutiae of the set.
+	 */
+	public Minutiae(int capacity) {
+		assert (capacity >= 0);
+		rows = new int[capacity];
+		cols = new int[capacity];
+		orientations = new int[capacity];
+	}
+
+	/**
+	 * Converts a list of minutiae.
+	 *
+	 * @param minutiae the list of minutiae, as returned by
+	 *                 {@link Fingerprint#extract(boolean[][])}.
+	 * @return the same minutiae, in the same order.
+	 */
+	public static Minutiae fromList(List<int[]> minutiae) {
+		assert (minutiae != null);
+		Minutiae result = new Minutiae(minutiae.size());
+		for (int[] minutia : minutiae) {
+			result.add(minutia[0], minutia[1], minutia[2]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the minutiae as a list of <code>{row, col, orientation}</code>
+	 *         arrays.
+	 */
+	public List<int[]> toList() {
+		List<int[]> minutiae = new ArrayList<int[]>(size);
+		for (int i = 0; i < size; ++i) {
+			minutiae.add(new int[] { rows[i], cols[i], orientations[i] });
+		}
+		return minutiae;
+	}
+
+	/**
+	 * @return a copy of this set whose capacity is its size.
+	 */
+	public Minutiae copy() {
+		Minutiae copy = new Minutiae(size);
+		System.arraycopy(rows, 0, copy.rows, 0, size);
+		System.arraycopy(cols, 0, copy.cols, 0, size);
+		System.arraycopy(orientations, 0, copy.orientations, 0, size);
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Adds a minutia at the end of the set.
+	 *
+	 * @param row         the row of the minutia.
+	 * @param col         the column of the minutia.
+	 * @param orientation the orientation of the minutia in degrees.
+	 */
+	public void add(int row, int col, int orientation) {
+		assert (size < rows.length);
+		rows[size] = row;
+		cols[size] = col;
+		orientations[size] = orientation;
+		++size;
+	}
+
+	/**
+	 * Removes all the minutiae, keeping the buffers.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * @return the number of minutiae.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the maximum number of minutiae.
+	 */
+	public int capacity() {
+		return rows.length;
+	}
+
+	/**
+	 * @param i the index of the minutia.
+	 * @return the row of the minutia.
+	 */
+	public int row(int i) {
+		assert (i < size);
+		return rows[i];
+	}
+
+	/**
+	 * @param i the index of the minutia.
+	 * @return the column of the minutia.
+	 */
+	public int col(int i) {
+		assert (i < size);
+		return cols[i];
+	}
+
+	/**
+	 * @param i the index of the minutia.
+	 * @return the orientation of the minutia in degrees.
+	 */
+	public int orientation(int i) {
+		assert (i < size);
+		return orientations[i];
+	}
+
+	/**
+	 * Sets the number of minutiae after the buffers were written directly.
+	 */
+	void setSize(int size) {
+		assert (size <= rows.length);
+		this.size = size;
+	}
+}
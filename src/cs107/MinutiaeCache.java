@@ -0,0 +1,236 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the minutiae extracted from fingerprint images, so that comparing
+ * the same images again does not thin and extract them again.
+ * <p>
+ * The minutiae are identified by the SHA-256 hash of the content of the image
+ * file and of the parameters of the extraction ({@link #PARAMETERS}): an image
+ * that changed, or an extraction that changed, gives another key. The last
+ * used sets are kept in memory, the least recently used being evicted when
+ * there are more than the capacity. If a directory is given, the sets are also
+ * written there in the {@link TemplateFormat}, so that they survive the
+ * process.
+ * <p>
+ * The cache can be used from several threads. Two threads asking for the same
+ * image at the same time may both extract it.
+ */
+public final class MinutiaeCache {
+
+	/**
+	 * The version of {@link Fingerprint#thin(BinaryImage)} and
+	 * {@link Fingerprint#extract(BinaryImage)}, to increase whenever they could
+	 * give other minutiae for the same image.
+	 */
+	private static final int EXTRACTION_VERSION = 1;
+
+	/**
+	 * The parameters of the extraction, part of the keys.
+	 */
+	public static final String PARAMETERS = "extraction=" + EXTRACTION_VERSION + ";ORIENTATION_DISTANCE="
+			+ Fingerprint.ORIENTATION_DISTANCE;
+
+	/**
+	 * The extension of the files of the disk tier.
+	 */
+	private static final String EXTENSION = ".fpt";
+
+	private final Map<String, Minutiae> memory;
+	private final Path directory;
+	private long hits;
+	private long diskHits;
+	private long misses;
+
+	/**
+	 * Creates a cache kept in memory only.
+	 *
+	 * @param capacity the maximum number of sets of minutiae kept in memory.
+	 */
+	public MinutiaeCache(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * Creates a cache kept in memory and in a directory.
+	 *
+	 * @param capacity  the maximum number of sets of minutiae kept in memory.
+	 * @param directory the directory of the disk tier, created if needed, or
+	 *                  <code>null</code> to keep the cache in memory only.
+	 */
+	public MinutiaeCache(int capacity, Path directory) {
+		assert (capacity >= 0);
+		this.directory = directory;
+		// in access order, so that the eldest entry is the least recently used
+		memory = new LinkedHashMap<String, Minutiae>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Minutiae> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Returns the minutiae of a fingerprint image, extracting them only if they
+	 * are in neither tier.
+	 *
+	 * @param path the path of the image file.
+	 * @return the minutiae, as extracted by {@link Fingerprint#extract(BinaryImage)}
+	 *         from the thinned image, which must not be modified, or
+	 *         <code>null</code> if the image cannot be read.
+	 */
+	public Minutiae get(String path) {
+		byte[] content;
+		try {
+			content = Files.readAllBytes(Paths.get(path));
+		} catch (IOException e) {
+			System.out.println(e + " Filename: " + path);
+			return null;
+		}
+		return get(content);
+	}
+
+	/**
+	 * Returns the minutiae of a fingerprint image already read in memory,
+	 * extracting them only if they are in neither tier.
+	 *
+	 * @param content the content of the image file.
+	 * @return the minutiae, as described in {@link #get(String)}, or
+	 *         <code>null</code> if the image cannot be decoded.
+	 */
+	public Minutiae get(byte[] content) {
+		assert (content != null);
+		String key = key(content);
+
+		synchronized (memory) {
+			Minutiae minutiae = memory.get(key);
+			if (minutiae != null) {
+				++hits;
+				return minutiae;
+			}
+		}
+		Minutiae minutiae = readDisk(key);
+		if (minutiae != null) {
+			synchronized (memory) {
+				++diskHits;
+				memory.put(key, minutiae);
+			}
+			return minutiae;
+		}
+
+		BinaryImage image = Helper.decodeBinaryImage(content);
+		if (image == null) {
+			return null;
+		}
+		minutiae = Minutiae.fromList(Fingerprint.extract(Fingerprint.thin(image)));
+		writeDisk(key, minutiae);
+		synchronized (memory) {
+			++misses;
+			memory.put(key, minutiae);
+		}
+		return minutiae;
+	}
+
+	/**
+	 * @return the number of calls to <code>get</code> answered from memory.
+	 */
+	public long hits() {
+		synchronized (memory) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of calls to <code>get</code> answered from the
+	 *         directory.
+	 */
+	public long diskHits() {
+		synchronized (memory) {
+			return diskHits;
+		}
+	}
+
+	/**
+	 * @return the number of calls to <code>get</code> that extracted the
+	 *         minutiae.
+	 */
+	public long misses() {
+		synchronized (memory) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Computes the key of an image, the hexadecimal SHA-256 hash of the
+	 * parameters and of the content.
+	 */
+	private static String key(byte[] content) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// every Java platform supports SHA-256
+			throw new AssertionError(e);
+		}
+		digest.update(PARAMETERS.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		StringBuilder key = new StringBuilder(64);
+		for (byte b : digest.digest(content)) {
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return key.toString();
+	}
+
+	/**
+	 * @return the minutiae of the directory, or <code>null</code> if there is no
+	 *         directory, no file or an invalid one.
+	 */
+	private Minutiae readDisk(String key) {
+		if (directory == null) {
+			return null;
+		}
+		Path file = directory.resolve(key + EXTENSION);
+		try {
+			return TemplateFormat.decode(Files.readAllBytes(file));
+		} catch (IOException | IllegalArgumentException e) {
+			// not cached yet, or a file that is corrupted and will be replaced
+			return null;
+		}
+	}
+
+	/**
+	 * Writes minutiae in the directory, if there is one. The file is written
+	 * under another name then renamed, so that a concurrent reader never sees a
+	 * partial file. Errors are ignored, the minutiae are then just not kept.
+	 */
+	private void writeDisk(String key, Minutiae minutiae) {
+		if (directory == null) {
+			return;
+		}
+		try {
+			Files.createDirectories(directory);
+			Path temporary = Files.createTempFile(directory, key, ".tmp");
+			try {
+				Files.write(temporary, TemplateFormat.encode(minutiae));
+				Files.move(temporary, directory.resolve(key + EXTENSION), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			// the cache is only an optimization
+		}
+	}
+}
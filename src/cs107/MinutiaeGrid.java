@@ -0,0 +1,208 @@
+package cs107;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Uniform grid over a set of minutiae, used to find the minutiae close to a
+ * point without comparing it with all of them.
+ * <p>
+ * The minutiae are sorted by cell in struct-of-arrays buffers. The buffers are
+ * kept between two calls to <code>build</code>, so that a grid can be reused
+ * for many sets of minutiae without allocating.
+ */
+final class MinutiaeGrid {
+
+	/**
+	 * The grid is made coarser when it would have more than this number of cells
+	 * per minutia.
+	 */
+	private static final int MAX_CELLS_PER_MINUTIA = 4;
+
+	private int size;
+	private int[] rows = new int[0];
+	private int[] cols = new int[0];
+	private int[] orientations = new int[0];
+	private int[] cellOf = new int[0];
+	// scratch buffers for the sort, swapped with the buffers above
+	private int[] sortedRows = new int[0];
+	private int[] sortedCols = new int[0];
+	private int[] sortedOrientations = new int[0];
+
+	private int minRow;
+	private int minCol;
+	private int cellSize;
+	private int gridRows;
+	private int gridCols;
+	// the minutiae of the cell k are at the indices [cellStart[k], cellStart[k + 1])
+	private int[] cellStart = new int[1];
+	private int[] next = new int[0];
+
+	/**
+	 * Fills the grid with a list of minutiae.
+	 *
+	 * @param minutiae the minutiae, as returned by
+	 *                 {@link Fingerprint#extract(boolean[][])}.
+	 * @param cellSize the preferred size of a cell, usually the maximum distance
+	 *                 of the queries.
+	 */
+	void build(List<int[]> minutiae, int cellSize) {
+		int n = minutiae.size();
+		ensureCapacity(n);
+		for (int i = 0; i < n; ++i) {
+			int[] minutia = minutiae.get(i);
+			rows[i] = minutia[0];
+			cols[i] = minutia[1];
+			orientations[i] = minutia[2];
+		}
+		build(n, cellSize);
+	}
+
+	/**
+	 * Fills the grid with minutiae stored in struct-of-arrays buffers.
+	 *
+	 * @param n            the number of minutiae.
+	 * @param rows         the rows of the minutiae.
+	 * @param cols         the columns of the minutiae.
+	 * @param orientations the orientations of the minutiae.
+	 * @param cellSize     the preferred size of a cell, usually the maximum
+	 *                     distance of the queries.
+	 */
+	void build(int n, int[] rows, int[] cols, int[] orientations, int cellSize) {
+		ensureCapacity(n);
+		System.arraycopy(rows, 0, this.rows, 0, n);
+		System.arraycopy(cols, 0, this.cols, 0, n);
+		System.arraycopy(orientations, 0, this.orientations, 0, n);
+		build(n, cellSize);
+	}
+
+	private void ensureCapacity(int n) {
+		if (rows.length < n) {
+			rows = new int[n];
+			cols = new int[n];
+			orientations = new int[n];
+			cellOf = new int[n];
+			sortedRows = new int[n];
+			sortedCols = new int[n];
+			sortedOrientations = new int[n];
+		}
+	}
+
+	/**
+	 * Sorts the first <code>n</code> minutiae of the buffers by cell.
+	 */
+	private void build(int n, int preferredCellSize) {
+		size = n;
+		if (n == 0) {
+			gridRows = 0;
+			gridCols = 0;
+			return;
+		}
+		minRow = Integer.MAX_VALUE;
+		minCol = Integer.MAX_VALUE;
+		int maxRow = Integer.MIN_VALUE;
+		int maxCol = Integer.MIN_VALUE;
+		for (int i = 0; i < n; ++i) {
+			minRow = Math.min(minRow, rows[i]);
+			maxRow = Math.max(maxRow, rows[i]);
+			minCol = Math.min(minCol, cols[i]);
+			maxCol = Math.max(maxCol, cols[i]);
+		}
+		// the queries scan every cell overlapping their square, so any size is
+		// correct, it only has to stay coarse enough for the grid to be small
+		cellSize = Math.max(1, preferredCellSize);
+		while ((long) ((maxRow - minRow) / cellSize + 1) * ((maxCol - minCol) / cellSize + 1) > MAX_CELLS_PER_MINUTIA
+				* (long) n + 64) {
+			cellSize *= 2;
+		}
+		gridRows = (maxRow - minRow) / cellSize + 1;
+		gridCols = (maxCol - minCol) / cellSize + 1;
+		int cells = gridRows * gridCols;
+		if (cellStart.length < cells + 1) {
+			cellStart = new int[cells + 1];
+			next = new int[cells];
+		} else {
+			Arrays.fill(cellStart, 0, cells + 1, 0);
+		}
+
+		// counting sort of the minutiae by cell
+		for (int i = 0; i < n; ++i) {
+			int cell = ((rows[i] - minRow) / cellSize) * gridCols + (cols[i] - minCol) / cellSize;
+			cellOf[i] = cell;
+			cellStart[cell + 1]++;
+		}
+		for (int cell = 0; cell < cells; ++cell) {
+			cellStart[cell + 1] += cellStart[cell];
+		}
+		System.arraycopy(cellStart, 0, next, 0, cells);
+		for (int i = 0; i < n; ++i) {
+			int k = next[cellOf[i]]++;
+			sortedRows[k] = rows[i];
+			sortedCols[k] = cols[i];
+			sortedOrientations[k] = orientations[i];
+		}
+		int[] swap = rows;
+		rows = sortedRows;
+		sortedRows = swap;
+		swap = cols;
+		cols = sortedCols;
+		sortedCols = swap;
+		swap = orientations;
+		orientations = sortedOrientations;
+		sortedOrientations = swap;
+	}
+
+	/**
+	 * @return the number of minutiae in the grid.
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Returns <code>true</code> if a minutia of the grid overlaps the given one,
+	 * with the same criteria as
+	 * {@link Fingerprint#matchingMinutiaeCount(List, List, int, int)}: the
+	 * euclidean distance is at most <code>maxDistance</code> and the orientations
+	 * differ by at most <code>maxOrientation</code>.
+	 *
+	 * @param row            the row of the minutia.
+	 * @param col            the column of the minutia.
+	 * @param orientation    the orientation of the minutia.
+	 * @param maxDistance    the maximum distance between two overlapping
+	 *                       minutiae.
+	 * @param maxOrientation the maximum difference of orientation between two
+	 *                       overlapping minutiae.
+	 * @return <code>true</code> if an overlapping minutia is found.
+	 */
+	boolean hasMatch(int row, int col, int orientation, int maxDistance, int maxOrientation) {
+		if (size == 0 || maxDistance < 0) {
+			return false;
+		}
+		// the distances are integers, so comparing the squares is exact
+		long maxDistance2 = (long) maxDistance * maxDistance;
+		// the cells overlapping the square of side 2*maxDistance+1 centered on the
+		// minutia
+		int fromCellRow = Math.max(0, Math.floorDiv(row - maxDistance - minRow, cellSize));
+		int toCellRow = Math.min(gridRows - 1, Math.floorDiv(row + maxDistance - minRow, cellSize));
+		int fromCellCol = Math.max(0, Math.floorDiv(col - maxDistance - minCol, cellSize));
+		int toCellCol = Math.min(gridCols - 1, Math.floorDiv(col + maxDistance - minCol, cellSize));
+		if (fromCellCol > toCellCol) {
+			return false;
+		}
+		for (int cellRow = fromCellRow; cellRow <= toCellRow; ++cellRow) {
+			int from = cellStart[cellRow * gridCols + fromCellCol];
+			int to = cellStart[cellRow * gridCols + toCellCol + 1];
+			// the cells of a row of the grid are consecutive in the buffers
+			for (int k = from; k < to; ++k) {
+				long dRow = row - rows[k];
+				long dCol = col - cols[k];
+				if (dRow * dRow + dCol * dCol <= maxDistance2
+						&& Math.abs(orientation - orientations[k]) <= maxOrientation) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+}
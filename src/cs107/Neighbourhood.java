@@ -0,0 +1,126 @@
+package cs107;
+
+/**
+ * Classifies the 8-neighbourhood of a pixel with precomputed tables.
+ * <p>
+ * The neighbourhood of a pixel is encoded as an 8 bits code where the bit
+ * <code>k</code> is the neighbour <code>k</code> of
+ * {@link Fingerprint#getNeighbours(boolean[][], int, int)}. The tables are
+ * indexed by this code and are built once from the reference methods
+ * {@link Fingerprint#blackNeighbours(boolean[])} and
+ * {@link Fingerprint#transitions(boolean[])}, so that a lookup gives the same
+ * answer without allocating the array of neighbours.
+ */
+public final class Neighbourhood {
+
+	private static final int CODES = 256;
+
+	private static final byte[] BLACK_NEIGHBOURS = new byte[CODES];
+	private static final byte[] TRANSITIONS = new byte[CODES];
+	private static final boolean[] REMOVABLE_STEP_0 = new boolean[CODES];
+	private static final boolean[] REMOVABLE_STEP_1 = new boolean[CODES];
+
+	static {
+		for (int code = 0; code < CODES; ++code) {
+			boolean[] p = toArray(code);
+			int blackNeighbours = Fingerprint.blackNeighbours(p);
+			int transitions = Fingerprint.transitions(p);
+			BLACK_NEIGHBOURS[code] = (byte) blackNeighbours;
+			TRANSITIONS[code] = (byte) transitions;
+			boolean candidate = 2 <= blackNeighbours && blackNeighbours <= 6 && transitions == 1;
+			REMOVABLE_STEP_0[code] = candidate && (!p[0] || !p[2] || !p[4]) && (!p[2] || !p[4] || !p[6]);
+			REMOVABLE_STEP_1[code] = candidate && (!p[0] || !p[2] || !p[6]) && (!p[0] || !p[4] || !p[6]);
+		}
+	}
+
+	private Neighbourhood() {
+	}
+
+	/**
+	 * Computes the code of the neighbourhood of the pixel at coordinates
+	 * <code>(row, col)</code>. Neighbours out of bounds of the image are white.
+	 *
+	 * @param image the packed image.
+	 * @param row   the row of the pixel, must be inside the image.
+	 * @param col   the column of the pixel, must be inside the image.
+	 * @return the code of the neighbourhood, between <code>0</code> and
+	 *         <code>255</code>.
+	 */
+	public static int code(BinaryImage image, int row, int col) {
+		assert (image.contains(row, col));
+		int code = 0;
+		if (image.get(row - 1, col)) {
+			code |= 1;
+		}
+		if (image.get(row - 1, col + 1)) {
+			code |= 1 << 1;
+		}
+		if (image.get(row, col + 1)) {
+			code |= 1 << 2;
+		}
+		if (image.get(row + 1, col + 1)) {
+			code |= 1 << 3;
+		}
+		if (image.get(row + 1, col)) {
+			code |= 1 << 4;
+		}
+		if (image.get(row + 1, col - 1)) {
+			code |= 1 << 5;
+		}
+		if (image.get(row, col - 1)) {
+			code |= 1 << 6;
+		}
+		if (image.get(row - 1, col - 1)) {
+			code |= 1 << 7;
+		}
+		return code;
+	}
+
+	/**
+	 * Decodes a neighbourhood code.
+	 *
+	 * @param code the code of the neighbourhood.
+	 * @return the neighbours, following the convention of
+	 *         {@link Fingerprint#getNeighbours(boolean[][], int, int)}.
+	 */
+	public static boolean[] toArray(int code) {
+		boolean[] neighbours = new boolean[8];
+		for (int k = 0; k < 8; ++k) {
+			neighbours[k] = (code >> k & 1) == 1;
+		}
+		return neighbours;
+	}
+
+	/**
+	 * @param code the code of the neighbourhood.
+	 * @return the number of black neighbours.
+	 */
+	public static int blackNeighbours(int code) {
+		return BLACK_NEIGHBOURS[code];
+	}
+
+	/**
+	 * @param code the code of the neighbourhood.
+	 * @return the number of white to black transitions among the neighbours.
+	 */
+	public static int transitions(int code) {
+		return TRANSITIONS[code];
+	}
+
+	/**
+	 * Returns <code>true</code> if a black pixel with this neighbourhood is removed
+	 * by the given step of the thinning algorithm.
+	 *
+	 * @param code the code of the neighbourhood.
+	 * @param step the step of the thinning, Step 0 or Step 1.
+	 * @return <code>true</code> if the pixel is removed.
+	 */
+	public static boolean removable(int code, int step) {
+		if (step == 0) {
+			return REMOVABLE_STEP_0[code];
+		} else if (step == 1) {
+			return REMOVABLE_STEP_1[code];
+		}
+		return false;
+	}
+}
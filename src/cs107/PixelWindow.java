@@ -0,0 +1,84 @@
+package cs107;
+
+/**
+ * Packed binary image covering a rectangular window of a larger image.
+ * <p>
+ * It is the result of
+ * {@link Fingerprint#connectedPixelsWindow(BinaryImage, int, int, int)}: only
+ * the <code>(2*distance+1)^2</code> pixels around the minutia can be connected,
+ * so there is no need to allocate an array of the size of the whole image.
+ * Pixels are accessed with the coordinates of the whole image.
+ */
+public final class PixelWindow {
+
+	private final int originRow;
+	private final int originCol;
+	private final BinaryImage pixels;
+
+	/**
+	 * Creates a window.
+	 *
+	 * @param originRow the row, in the whole image, of the first row of the
+	 *                  window.
+	 * @param originCol the column, in the whole image, of the first column of the
+	 *                  window.
+	 * @param pixels    the pixels of the window.
+	 */
+	public PixelWindow(int originRow, int originCol, BinaryImage pixels) {
+		assert (pixels != null);
+		this.originRow = originRow;
+		this.originCol = originCol;
+		this.pixels = pixels;
+	}
+
+	/**
+	 * @return the row, in the whole image, of the first row of the window.
+	 */
+	public int originRow() {
+		return originRow;
+	}
+
+	/**
+	 * @return the column, in the whole image, of the first column of the window.
+	 */
+	public int originCol() {
+		return originCol;
+	}
+
+	/**
+	 * @return the pixels of the window, indexed relatively to the origin.
+	 */
+	public BinaryImage pixels() {
+		return pixels;
+	}
+
+	/**
+	 * Returns the value of a pixel. Pixels outside of the window are white.
+	 *
+	 * @param row the row of the pixel in the whole image.
+	 * @param col the column of the pixel in the whole image.
+	 * @return <code>true</code> if the pixel is black.
+	 */
+	public boolean get(int row, int col) {
+		return pixels.get(row - originRow, col - originCol);
+	}
+
+	/**
+	 * Expands the window to a whole image.
+	 *
+	 * @param height the number of rows of the whole image.
+	 * @param width  the number of columns of the whole image.
+	 * @return the image of the given size containing the pixels of the window.
+	 */
+	public BinaryImage toImage(int height, int width) {
+		BinaryImage image = new BinaryImage(height, width);
+		for (int i = 0; i < pixels.height(); ++i) {
+			for (int j = 0; j < pixels.width(); ++j) {
+				if (pixels.get(i, j)) {
+					image.set(originRow + i, originCol + j, true);
+				}
+			}
+		}
+		return image;
+	}
+}
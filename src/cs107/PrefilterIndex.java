@@ -0,0 +1,231 @@
+package cs107;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * Coarse signatures of fingerprints, compared in constant time to skip the
+ * templates that are unlikely to match a probe before running a matcher.
+ * <p>
+ * The signature of a fingerprint is the histogram of the pairs made by each
+ * minutia and its two nearest neighbours, by distance and by
+ * the orientations of both minutiae relatively to the direction of the pair.
+ * These are unchanged by the translations and rotations tried by the matching,
+ * and the minutiae that the matching aligns usually keep the same nearest
+ * neighbours, so a match gives many common pairs. Each pair is spread over the
+ * bins around it, so that it still meets the pair of the other fingerprint
+ * when the values fall on both sides of a boundary. The similarity of two
+ * signatures is the number of pairs they have in common over the number of
+ * pairs of the smaller one, between <code>0</code> and <code>1</code>.
+ * <p>
+ * The signatures are stored one after the other in a single array.
+ */
+public final class PrefilterIndex {
+
+	/**
+	 * The number of nearest neighbours paired with each minutia.
+	 */
+	private static final int NEIGHBOURS = 2;
+
+	/**
+	 * The pairs of minutiae farther than this distance are not counted: the
+	 * direction of a pair moves less with the position of its minutiae when they
+	 * are far apart, but the nearest neighbours are rarely that far.
+	 */
+	private static final int MAX_DISTANCE = 48;
+
+	/**
+	 * The size of a bin along the distance, in pixels.
+	 */
+	private static final int DISTANCE_BIN = 6;
+
+	/**
+	 * The size of a bin along the orientations, in degrees.
+	 */
+	private static final int ANGLE_BIN = 30;
+
+	private static final int DISTANCE_BINS = MAX_DISTANCE / DISTANCE_BIN;
+	private static final int ANGLE_BINS = 360 / ANGLE_BIN;
+
+	/**
+	 * The number of values of a signature.
+	 */
+	public static final int SIGNATURE_SIZE = DISTANCE_BINS * ANGLE_BINS * ANGLE_BINS;
+
+	private float[] signatures = new float[0];
+	private int size;
+
+	/**
+	 * Computes the signature of a fingerprint.
+	 *
+	 * @param minutiae the minutiae of the fingerprint.
+	 * @return the histogram of its pairs of neighbouring minutiae, of length
+	 *         {@link #SIGNATURE_SIZE} and whose sum is the number of pairs.
+	 */
+	public static float[] signature(Minutiae minutiae) {
+		assert (minutiae != null);
+		float[] signature = new float[SIGNATURE_SIZE];
+		int[] neighbours = new int[NEIGHBOURS];
+		int[] distances2 = new int[NEIGHBOURS];
+		for (int i = 0; i < minutiae.size(); ++i) {
+			// the nearest neighbours, the nearest first
+			int found = 0;
+			for (int j = 0; j < minutiae.size(); ++j) {
+				int dRow = minutiae.rows[i] - minutiae.rows[j];
+				int dCol = minutiae.cols[i] - minutiae.cols[j];
+				int distance2 = dRow * dRow + dCol * dCol;
+				if (j == i || distance2 >= MAX_DISTANCE * MAX_DISTANCE
+						|| (found == NEIGHBOURS && distance2 >= distances2[NEIGHBOURS - 1])) {
+					continue;
+				}
+				int k = found < NEIGHBOURS ? found++ : NEIGHBOURS - 1;
+				while (k > 0 && distances2[k - 1] > distance2) {
+					neighbours[k] = neighbours[k - 1];
+					distances2[k] = distances2[k - 1];
+					--k;
+				}
+				neighbours[k] = j;
+				distances2[k] = distance2;
+			}
+			for (int k = 0; k < found; ++k) {
+				int j = neighbours[k];
+				// the direction of the pair, with the y axis pointing up as in
+				// Fingerprint.applyRotation
+				double direction = Math.toDegrees(
+						Math.atan2(minutiae.rows[i] - minutiae.rows[j], minutiae.cols[j] - minutiae.cols[i]));
+				add(signature, Math.sqrt(distances2[k]) / DISTANCE_BIN,
+						(minutiae.orientations[i] - direction) / ANGLE_BIN,
+						(minutiae.orientations[j] - direction) / ANGLE_BIN);
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Adds a pair to the eight bins whose centers surround it, weighted by their
+	 * closeness to it. The distance is not wrapped, the angles are, so they can
+	 * be given in any turn.
+	 *
+	 * @param distance the distance, in bins.
+	 * @param angle1   the first angle, in bins.
+	 * @param angle2   the second angle, in bins.
+	 */
+	private static void add(float[] signature, double distance, double angle1, double angle2) {
+		double x = distance - 0.5;
+		double y = angle1 - 0.5;
+		double z = angle2 - 0.5;
+		int x0 = (int) Math.floor(x);
+		int y0 = (int) Math.floor(y);
+		int z0 = (int) Math.floor(z);
+		for (int dx = 0; dx < 2; ++dx) {
+			int distanceBin = x0 + dx;
+			if (distanceBin < 0 || distanceBin >= DISTANCE_BINS) {
+				continue;
+			}
+			double wx = dx == 0 ? 1 - (x - x0) : x - x0;
+			for (int dy = 0; dy < 2; ++dy) {
+				int angle1Bin = Math.floorMod(y0 + dy, ANGLE_BINS);
+				double wy = dy == 0 ? 1 - (y - y0) : y - y0;
+				for (int dz = 0; dz < 2; ++dz) {
+					int angle2Bin = Math.floorMod(z0 + dz, ANGLE_BINS);
+					double wz = dz == 0 ? 1 - (z - z0) : z - z0;
+					signature[(distanceBin * ANGLE_BINS + angle1Bin) * ANGLE_BINS + angle2Bin] += (float) (wx * wy * wz);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the signature of a fingerprint.
+	 *
+	 * @param minutiae the minutiae of the fingerprint.
+	 * @return the index of the signature, which is the number of signatures added
+	 *         before.
+	 */
+	public int add(Minutiae minutiae) {
+		if (signatures.length < (size + 1) * SIGNATURE_SIZE) {
+			signatures = Arrays.copyOf(signatures, Math.max(SIGNATURE_SIZE, 2 * signatures.length));
+		}
+		System.arraycopy(signature(minutiae), 0, signatures, size * SIGNATURE_SIZE, SIGNATURE_SIZE);
+		return size++;
+	}
+
+	/**
+	 * @return the number of signatures.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Compares a signature with one of the index.
+	 *
+	 * @param signature the signature, as returned by {@link #signature(Minutiae)}.
+	 * @param index     the index of the signature of the index.
+	 * @return the number of pairs in common over the number of pairs of the
+	 *         smaller signature, between <code>0</code> and <code>1</code>, or
+	 *         <code>0</code> if one of them has no pairs.
+	 */
+	public double similarity(float[] signature, int index) {
+		assert (signature.length == SIGNATURE_SIZE);
+		assert (index >= 0 && index < size);
+		int offset = index * SIGNATURE_SIZE;
+		float common = 0;
+		float pairs1 = 0;
+		float pairs2 = 0;
+		for (int k = 0; k < SIGNATURE_SIZE; ++k) {
+			common += Math.min(signature[k], signatures[offset + k]);
+			pairs1 += signature[k];
+			pairs2 += signatures[offset + k];
+		}
+		return similarity(common, pairs1, pairs2);
+	}
+
+	/**
+	 * Compares a signature with a signature stored in a buffer, as
+	 * {@link #similarity(float[], int)}.
+	 *
+	 * @param signature  the signature, as returned by {@link #signature(Minutiae)}.
+	 * @param signatures the buffer.
+	 * @param offset     the index in the buffer of the first value of the
+	 *                   stored signature.
+	 * @return the similarity of the two signatures.
+	 */
+	static double similarity(float[] signature, FloatBuffer signatures, int offset) {
+		float common = 0;
+		float pairs1 = 0;
+		float pairs2 = 0;
+		for (int k = 0; k < SIGNATURE_SIZE; ++k) {
+			float value = signatures.get(offset + k);
+			common += Math.min(signature[k], value);
+			pairs1 += signature[k];
+			pairs2 += value;
+		}
+		return similarity(common, pairs1, pairs2);
+	}
+
+	private static double similarity(float common, float pairs1, float pairs2) {
+		float pairs = Math.min(pairs1, pairs2);
+		return pairs > 0 ? Math.min(1, common / pairs) : 0;
+	}
+
+	/**
+	 * Chooses the minimum similarity that keeps a given fraction of the true
+	 * matches.
+	 *
+	 * @param similarities the similarities of pairs of fingerprints known to
+	 *                     match.
+	 * @param recall       the fraction of these pairs to keep, between
+	 *                     <code>0</code> and <code>1</code>.
+	 * @return the largest threshold such that at least <code>recall</code> of
+	 *         the similarities are above or equal to it.
+	 */
+	public static double thresholdForRecall(double[] similarities, double recall) {
+		assert (similarities != null && similarities.length > 0);
+		assert (recall >= 0 && recall <= 1);
+		double[] sorted = similarities.clone();
+		Arrays.sort(sorted);
+		int lost = (int) Math.floor((1 - recall) * sorted.length);
+		return sorted[Math.min(lost, sorted.length - 1)];
+	}
+}
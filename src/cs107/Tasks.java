@@ -0,0 +1,55 @@
+package cs107;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Helpers shared by the stages that split their work in tasks run by an
+ * {@link java.util.concurrent.Executor}.
+ */
+final class Tasks {
+
+	/**
+	 * The maximum number of tasks per core. A few tasks per core keep the cores
+	 * busy when some tasks take longer than others.
+	 */
+	private static final int TASKS_PER_CORE = 4;
+
+	private Tasks() {
+	}
+
+	/**
+	 * Returns the number of tasks to split some work in: a few per core, but
+	 * with enough units each to keep the overhead of a task small.
+	 *
+	 * @param units           the number of units of work, for instance rows.
+	 * @param minUnitsPerTask the minimum number of units given to a task.
+	 * @return the number of tasks, at least <code>1</code>.
+	 */
+	static int count(int units, int minUnitsPerTask) {
+		assert (minUnitsPerTask > 0);
+		int tasks = TASKS_PER_CORE * Runtime.getRuntime().availableProcessors();
+		return Math.max(1, Math.min(units / minUnitsPerTask, tasks));
+	}
+
+	/**
+	 * Waits for a task and returns its result, rethrowing the exception or the
+	 * error that made it fail instead of the {@link CompletionException} wrapping
+	 * it.
+	 *
+	 * @param future the task.
+	 * @return the result of the task.
+	 */
+	static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,288 @@
+package cs107;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary format of a set of minutiae, so that the minutiae of a
+ * fingerprint are extracted once and then only read back.
+ * <p>
+ * A template is made of:
+ * <ul>
+ * <li>the 4 bytes {@link #MAGIC} and a byte holding the version,
+ * {@link #VERSION},</li>
+ * <li>the number of minutiae,</li>
+ * <li>for each minutia, the difference between its row and the one of the
+ * previous minutia, then the same for the column (the previous minutia of the
+ * first one being <code>(0, 0)</code>),</li>
+ * <li>the orientations, packed on {@link #ORIENTATION_BITS} bits each, least
+ * significant bits first.</li>
+ * </ul>
+ * The count and the differences are variable-length integers of 7 bits per
+ * byte, the differences being zigzag-encoded so that small negative values are
+ * short too. Since {@link Fingerprint#extract(BinaryImage)} returns the
+ * minutiae sorted by row, the row differences are small and a minutia takes
+ * less than 4 bytes on average. The order of the minutiae is kept.
+ */
+public final class TemplateFormat {
+
+	/**
+	 * The first bytes of a template.
+	 */
+	public static final int MAGIC = 0x46505450; // "FPTP"
+
+	/**
+	 * The version written by {@link #encode(Minutiae)}.
+	 */
+	public static final int VERSION = 1;
+
+	/**
+	 * The number of bits of an orientation. The orientations must be in
+	 * <code>[0, 2^ORIENTATION_BITS)</code>, which includes the orientations
+	 * computed by {@link Fingerprint#computeOrientation(BinaryImage, int, int, int)}.
+	 */
+	public static final int ORIENTATION_BITS = 9;
+
+	private TemplateFormat() {
+	}
+
+	/**
+	 * Computes the size of the template of a set of minutiae.
+	 *
+	 * @param minutiae the minutiae.
+	 * @return the number of bytes written by
+	 *         {@link #encode(Minutiae, ByteBuffer)}.
+	 */
+	public static int encodedSize(Minutiae minutiae) {
+		assert (minutiae != null);
+		int n = minutiae.size();
+		int size = 5 + varintSize(n);
+		int row = 0;
+		int col = 0;
+		for (int i = 0; i < n; ++i) {
+			size += varintSize(zigzag(minutiae.rows[i] - row)) + varintSize(zigzag(minutiae.cols[i] - col));
+			row = minutiae.rows[i];
+			col = minutiae.cols[i];
+		}
+		return size + orientationBytes(n);
+	}
+
+	/**
+	 * Encodes a set of minutiae.
+	 *
+	 * @param minutiae the minutiae.
+	 * @return the template.
+	 * @throws IllegalArgumentException if an orientation does not fit in
+	 *                                  {@link #ORIENTATION_BITS} bits.
+	 */
+	public static byte[] encode(Minutiae minutiae) {
+		byte[] template = new byte[encodedSize(minutiae)];
+		encode(minutiae, ByteBuffer.wrap(template));
+		return template;
+	}
+
+	/**
+	 * Encodes a set of minutiae at the position of a buffer, and moves the
+	 * position after the template.
+	 *
+	 * @param minutiae the minutiae.
+	 * @param buffer   the buffer, with at least {@link #encodedSize(Minutiae)}
+	 *                 bytes remaining.
+	 * @throws IllegalArgumentException if an orientation does not fit in
+	 *                                  {@link #ORIENTATION_BITS} bits.
+	 */
+	public static void encode(Minutiae minutiae, ByteBuffer buffer) {
+		assert (minutiae != null && buffer != null);
+		int n = minutiae.size();
+		for (int i = 0; i < n; ++i) {
+			if (minutiae.orientations[i] < 0 || minutiae.orientations[i] >= 1 << ORIENTATION_BITS) {
+				throw new IllegalArgumentException("orientation out of range: " + minutiae.orientations[i]);
+			}
+		}
+		buffer.putInt(MAGIC);
+		buffer.put((byte) VERSION);
+		putVarint(buffer, n);
+		int row = 0;
+		int col = 0;
+		for (int i = 0; i < n; ++i) {
+			putVarint(buffer, zigzag(minutiae.rows[i] - row));
+			putVarint(buffer, zigzag(minutiae.cols[i] - col));
+			row = minutiae.rows[i];
+			col = minutiae.cols[i];
+		}
+		// the bits not yet written, least significant first
+		long bits = 0;
+		int bitCount = 0;
+		for (int i = 0; i < n; ++i) {
+			bits |= (long) minutiae.orientations[i] << bitCount;
+			bitCount += ORIENTATION_BITS;
+			while (bitCount >= 8) {
+				buffer.put((byte) bits);
+				bits >>>= 8;
+				bitCount -= 8;
+			}
+		}
+		if (bitCount > 0) {
+			buffer.put((byte) bits);
+		}
+	}
+
+	/**
+	 * Decodes a template.
+	 *
+	 * @param template the template.
+	 * @return the minutiae, in the order they were encoded.
+	 * @throws IllegalArgumentException if the template is invalid or of an
+	 *                                  unknown version.
+	 */
+	public static Minutiae decode(byte[] template) {
+		assert (template != null);
+		return decode(ByteBuffer.wrap(template));
+	}
+
+	/**
+	 * Decodes the template at the position of a buffer, and moves the position
+	 * after it.
+	 *
+	 * @param buffer the buffer.
+	 * @return the minutiae, in the order they were encoded.
+	 * @throws IllegalArgumentException if the template is invalid or of an
+	 *                                  unknown version.
+	 */
+	public static Minutiae decode(ByteBuffer buffer) {
+		Minutiae minutiae = new Minutiae(size(buffer));
+		decode(buffer, minutiae);
+		return minutiae;
+	}
+
+	/**
+	 * Reads the number of minutiae of the template at the position of a buffer,
+	 * without moving the position.
+	 *
+	 * @param buffer the buffer.
+	 * @return the number of minutiae of the template.
+	 * @throws IllegalArgumentException if the template is invalid or of an
+	 *                                  unknown version.
+	 */
+	public static int size(ByteBuffer buffer) {
+		assert (buffer != null);
+		int position = buffer.position();
+		try {
+			return readHeader(buffer);
+		} finally {
+			buffer.position(position);
+		}
+	}
+
+	/**
+	 * Decodes the template at the position of a buffer into a set of minutiae,
+	 * and moves the position after it. The set can be reused for many templates,
+	 * so that decoding does not allocate.
+	 *
+	 * @param buffer the buffer.
+	 * @param result the set receiving the minutiae, its capacity must be at
+	 *               least {@link #size(ByteBuffer)}.
+	 * @throws IllegalArgumentException if the template is invalid or of an
+	 *                                  unknown version.
+	 */
+	public static void decode(ByteBuffer buffer, Minutiae result) {
+		assert (buffer != null && result != null);
+		try {
+			int n = readHeader(buffer);
+			if (n > result.capacity()) {
+				throw new IllegalArgumentException("template of " + n + " minutiae, capacity " + result.capacity());
+			}
+			int row = 0;
+			int col = 0;
+			for (int i = 0; i < n; ++i) {
+				row += unzigzag(getVarint(buffer));
+				col += unzigzag(getVarint(buffer));
+				result.rows[i] = row;
+				result.cols[i] = col;
+			}
+			long bits = 0;
+			int bitCount = 0;
+			int mask = (1 << ORIENTATION_BITS) - 1;
+			for (int i = 0; i < n; ++i) {
+				while (bitCount < ORIENTATION_BITS) {
+					bits |= (long) (buffer.get() & 0xFF) << bitCount;
+					bitCount += 8;
+				}
+				result.orientations[i] = (int) bits & mask;
+				bits >>>= ORIENTATION_BITS;
+				bitCount -= ORIENTATION_BITS;
+			}
+			result.setSize(n);
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated template", e);
+		}
+	}
+
+	/**
+	 * Reads the magic number and the version, and returns the number of minutiae.
+	 */
+	private static int readHeader(ByteBuffer buffer) {
+		try {
+			if (buffer.getInt() != MAGIC) {
+				throw new IllegalArgumentException("not a template");
+			}
+			int version = buffer.get();
+			if (version != VERSION) {
+				throw new IllegalArgumentException("unsupported template version: " + version);
+			}
+			int n = getVarint(buffer);
+			// each minutia takes at least 2 bytes, checked before allocating the result
+			if (n < 0 || n > buffer.remaining() / 2) {
+				throw new IllegalArgumentException("invalid number of minutiae: " + n);
+			}
+			return n;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("truncated template", e);
+		}
+	}
+
+	private static int orientationBytes(int n) {
+		return (int) (((long) n * ORIENTATION_BITS + 7) / 8);
+	}
+
+	/**
+	 * Maps the signed integers to unsigned ones, small absolute values first:
+	 * <code>0, -1, 1, -2, 2, ...</code>
+	 */
+	private static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static int varintSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			++size;
+		}
+		return size;
+	}
+
+	private static void putVarint(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static int getVarint(ByteBuffer buffer) {
+		int value = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			int b = buffer.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("invalid variable-length integer");
+	}
+}
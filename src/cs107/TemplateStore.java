@@ -0,0 +1,276 @@
+package cs107;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+
+/**
+ * Read-only set of templates stored in a single file, mapped in memory.
+ * <p>
+ * Opening a store only reads its header: the templates stay in the file and
+ * are decoded, one at a time, in a buffer of each search task. The heap used
+ * by a store and the time to open it do not depend on the number of
+ * templates, and processes mapping the same file share its pages. The mapping
+ * is released when the store is garbage collected.
+ * <p>
+ * The file holds, after a header of 5 integers (magic number, version, number
+ * of templates, largest number of minutiae of a template and size of a
+ * signature):
+ * <ul>
+ * <li>the offsets of the templates in the file, plus the end of the last
+ * one,</li>
+ * <li>the offsets of the identifiers, plus the end of the last one,</li>
+ * <li>the {@link PrefilterIndex} signatures of the templates,</li>
+ * <li>the templates, in the {@link TemplateFormat},</li>
+ * <li>the identifiers, in UTF-8.</li>
+ * </ul>
+ * Numbers are big-endian and the file is limited to 2GB.
+ */
+public final class TemplateStore {
+
+	/**
+	 * The first bytes of a store.
+	 */
+	public static final int MAGIC = 0x46505453; // "FPTS"
+
+	/**
+	 * The version written by {@link #write(Path, List, List)}.
+	 */
+	public static final int VERSION = 2;
+
+	private static final int HEADER_INTS = 5;
+
+	private final int size;
+	private final int maxMinutiae;
+	private final ByteBuffer buffer;
+	private final IntBuffer templateOffsets;
+	private final IntBuffer idOffsets;
+	private final FloatBuffer signatures;
+
+	private TemplateStore(ByteBuffer buffer) throws IOException {
+		if (buffer.capacity() < HEADER_INTS * 4 || buffer.getInt(0) != MAGIC) {
+			throw new IOException("not a template store");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException("unsupported template store version: " + buffer.getInt(4));
+		}
+		size = buffer.getInt(8);
+		maxMinutiae = buffer.getInt(12);
+		if (size < 0 || maxMinutiae < 0 || buffer.getInt(16) != PrefilterIndex.SIGNATURE_SIZE
+				|| buffer.capacity() < dataOffset(size)) {
+			throw new IOException("corrupted template store");
+		}
+		this.buffer = buffer;
+		templateOffsets = slice(buffer, HEADER_INTS * 4, size + 1).asIntBuffer();
+		idOffsets = slice(buffer, (HEADER_INTS + size + 1) * 4, size + 1).asIntBuffer();
+		signatures = slice(buffer, (HEADER_INTS + 2 * (size + 1)) * 4, size * PrefilterIndex.SIGNATURE_SIZE)
+				.asFloatBuffer();
+	}
+
+	/**
+	 * Maps a store in memory.
+	 *
+	 * @param path the file written by {@link #write(Path, List, List)}.
+	 * @return the store.
+	 * @throws IOException if the file cannot be read or is not a store.
+	 */
+	public static TemplateStore open(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException("template store larger than 2GB");
+			}
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return new TemplateStore(buffer);
+		}
+	}
+
+	/**
+	 * Writes a store.
+	 *
+	 * @param path      the file to write.
+	 * @param ids       the identifiers of the templates.
+	 * @param templates the minutiae of the templates, in the same order.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void write(Path path, List<String> ids, List<Minutiae> templates) throws IOException {
+		assert (ids != null && templates != null && ids.size() == templates.size());
+		int size = templates.size();
+		byte[][] idBytes = new byte[size][];
+		long length = dataOffset(size);
+		int maxMinutiae = 0;
+		for (int i = 0; i < size; ++i) {
+			idBytes[i] = ids.get(i).getBytes(StandardCharsets.UTF_8);
+			length += TemplateFormat.encodedSize(templates.get(i)) + idBytes[i].length;
+			maxMinutiae = Math.max(maxMinutiae, templates.get(i).size());
+		}
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("template store larger than 2GB");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate((int) length);
+		buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(maxMinutiae).putInt(PrefilterIndex.SIGNATURE_SIZE);
+		int offset = (int) dataOffset(size);
+		for (int i = 0; i < size; ++i) {
+			buffer.putInt(offset);
+			offset += TemplateFormat.encodedSize(templates.get(i));
+		}
+		buffer.putInt(offset);
+		for (int i = 0; i < size; ++i) {
+			buffer.putInt(offset);
+			offset += idBytes[i].length;
+		}
+		buffer.putInt(offset);
+		for (Minutiae template : templates) {
+			for (float value : PrefilterIndex.signature(template)) {
+				buffer.putFloat(value);
+			}
+		}
+		for (Minutiae template : templates) {
+			TemplateFormat.encode(template, buffer);
+		}
+		for (byte[] id : idBytes) {
+			buffer.put(id);
+		}
+		buffer.flip();
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * @return the offset of the templates in a store of <code>size</code>
+	 *         templates.
+	 */
+	private static long dataOffset(int size) {
+		return (HEADER_INTS + 2 * (size + 1L) + (long) size * PrefilterIndex.SIGNATURE_SIZE) * 4;
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int ints) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset).limit(offset + 4 * ints);
+		return slice.slice();
+	}
+
+	/**
+	 * @return the number of templates.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the largest number of minutiae of a template, which is the capacity
+	 *         needed by {@link #decode(int, Minutiae)}.
+	 */
+	public int maxMinutiae() {
+		return maxMinutiae;
+	}
+
+	/**
+	 * @param index the index of the template.
+	 * @return the identifier of the template.
+	 */
+	public String id(int index) {
+		assert (index >= 0 && index < size);
+		int from = idOffsets.get(index);
+		byte[] id = new byte[idOffsets.get(index + 1) - from];
+		ByteBuffer view = buffer.duplicate();
+		view.position(from);
+		view.get(id);
+		return new String(id, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes a template in a set of minutiae, which can be reused for many
+	 * templates.
+	 *
+	 * @param index  the index of the template.
+	 * @param result the set receiving the minutiae, of capacity at least
+	 *               {@link #maxMinutiae()}.
+	 * @throws IllegalArgumentException if the template is corrupted.
+	 */
+	public void decode(int index, Minutiae result) {
+		assert (index >= 0 && index < size);
+		ByteBuffer view = buffer.duplicate();
+		view.position(templateOffsets.get(index)).limit(templateOffsets.get(index + 1));
+		TemplateFormat.decode(view, result);
+	}
+
+	/**
+	 * @param index the index of the template.
+	 * @return the minutiae of the template, in a new set.
+	 * @throws IllegalArgumentException if the template is corrupted.
+	 */
+	public Minutiae minutiae(int index) {
+		Minutiae minutiae = new Minutiae(maxMinutiae);
+		decode(index, minutiae);
+		return minutiae.copy();
+	}
+
+	/**
+	 * Compares the {@link PrefilterIndex} signature of a probe with the one of a
+	 * template.
+	 *
+	 * @param signature the signature of the probe.
+	 * @param index     the index of the template.
+	 * @return the similarity, as computed by
+	 *         {@link PrefilterIndex#similarity(float[], int)}.
+	 */
+	public double similarity(float[] signature, int index) {
+		assert (signature.length == PrefilterIndex.SIGNATURE_SIZE);
+		assert (index >= 0 && index < size);
+		return PrefilterIndex.similarity(signature, signatures, index * PrefilterIndex.SIGNATURE_SIZE);
+	}
+
+	/**
+	 * Searches the templates that best match a probe, as
+	 * {@link Gallery#identify(Minutiae, int, double, Executor)} but without
+	 * loading the templates.
+	 *
+	 * @param probe         the minutiae of the probe.
+	 * @param k             the maximum number of candidates.
+	 * @param minSimilarity the minimum similarity of the signatures for a
+	 *                      template to be scored, <code>0</code> to score all of
+	 *                      them.
+	 * @param scorer        the function scoring the probe against a template,
+	 *                      for instance
+	 *                      <code>(p, t) -&gt; HoughMatcher.score(p, t, MatchPolicy.BEST)</code>.
+	 *                      The template is in a reused buffer, so it must not be
+	 *                      kept.
+	 * @param executor      the executor running the chunks, for instance
+	 *                      {@link ForkJoinPool#commonPool()}.
+	 * @return the <code>k</code> scored templates with the highest counts, the
+	 *         highest count first.
+	 */
+	public List<Gallery.Candidate> identify(Minutiae probe, int k, double minSimilarity,
+			BiFunction<Minutiae, Minutiae, MatchScore> scorer, Executor executor) {
+		assert (probe != null && scorer != null && executor != null);
+		assert (k >= 0);
+		float[] signature = minSimilarity > 0 ? PrefilterIndex.signature(probe) : null;
+		return Gallery.search(size, k, executor, () -> {
+			Minutiae template = new Minutiae(maxMinutiae);
+			return index -> {
+				if (signature != null && similarity(signature, index) < minSimilarity) {
+					return null;
+				}
+				decode(index, template);
+				return scorer.apply(probe, template);
+			};
+		}, this::id);
+	}
+}
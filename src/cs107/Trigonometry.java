@@ -0,0 +1,70 @@
+package cs107;
+
+/**
+ * Cosine and sine of whole angles in degrees, read from precomputed tables.
+ * <p>
+ * The rotations used by {@link Fingerprint} and {@link Helper} are always a
+ * whole number of degrees. The tables are filled with exactly the expression
+ * they replace, <code>Math.cos(degrees * (Math.PI / 180))</code>, so the
+ * results, and thus the rounded coordinates, are unchanged. The angle is not
+ * reduced modulo 360 since <code>Math.cos</code> of equivalent angles can
+ * differ in the last bit; angles outside of the tables are computed directly.
+ */
+public final class Trigonometry {
+
+	/**
+	 * The smallest angle of the tables, in degrees.
+	 */
+	private static final int MIN_DEGREES = -720;
+
+	/**
+	 * The largest angle of the tables, in degrees.
+	 */
+	private static final int MAX_DEGREES = 720;
+
+	private static final double[] COS = new double[MAX_DEGREES - MIN_DEGREES + 1];
+	private static final double[] SIN = new double[MAX_DEGREES - MIN_DEGREES + 1];
+
+	static {
+		for (int degrees = MIN_DEGREES; degrees <= MAX_DEGREES; ++degrees) {
+			COS[degrees - MIN_DEGREES] = Math.cos(toRadians(degrees));
+			SIN[degrees - MIN_DEGREES] = Math.sin(toRadians(degrees));
+		}
+	}
+
+	private Trigonometry() {
+	}
+
+	/**
+	 * Converts an angle to radians, as done by
+	 * {@link Fingerprint#applyRotation(int[], int, int, int)}.
+	 *
+	 * @param degrees the angle in degrees.
+	 * @return the angle in radians.
+	 */
+	private static double toRadians(int degrees) {
+		return degrees * (Math.PI / 180);
+	}
+
+	/**
+	 * @param degrees the angle in degrees.
+	 * @return the cosine of the angle.
+	 */
+	public static double cos(int degrees) {
+		if (degrees < MIN_DEGREES || degrees > MAX_DEGREES) {
+			return Math.cos(toRadians(degrees));
+		}
+		return COS[degrees - MIN_DEGREES];
+	}
+
+	/**
+	 * @param degrees the angle in degrees.
+	 * @return the sine of the angle.
+	 */
+	public static double sin(int degrees) {
+		if (degrees < MIN_DEGREES || degrees > MAX_DEGREES) {
+			return Math.sin(toRadians(degrees));
+		}
+		return SIN[degrees - MIN_DEGREES];
+	}
+}